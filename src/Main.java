@@ -1,41 +1,36 @@
 import dao.AccountDAOImpl;
 import dao.IAccountDAO;
-import dto.AccountDTO;
-import dto.UserDTO;
-import model.Account;
 import service.AccountServiceImpl;
 import service.IAccountService;
+import workload.WorkloadConfig;
+import workload.WorkloadDriver;
+import workload.WorkloadReport;
 
-import java.util.List;
+import java.io.OutputStream;
+import java.io.PrintStream;
 
 public class Main {
 
     private final static IAccountDAO dao = new AccountDAOImpl();
     private final static IAccountService service = new AccountServiceImpl(dao);
 
+    /**
+     * Runs a workload against the account service and prints its report.
+     * See {@link WorkloadConfig#parse} for the arguments. The service logs
+     * every failed call to stderr, which would serialize the threads, so
+     * stderr is muted during the run; the report counts the failures.
+     */
     public static void main(String[] args) {
 
+        PrintStream err = System.err;
         try {
-            UserDTO userDTO = new UserDTO(1L,"Alice","Wonderland","12345");
-            AccountDTO accountDTO = new AccountDTO(1L,userDTO,"GR123456",100.0);
-            UserDTO user2DTO = new UserDTO(2L,"Bob","M.","12347");
-            AccountDTO account2DTO = new AccountDTO(2L,user2DTO,"GR123457",1000.0);
-
-
-            service.insertAccount(accountDTO);
-            service.insertAccount(account2DTO);
-            account2DTO.setBalance(200.0);
-            service.updateAccount(2L,account2DTO);
-            service.deposit(account2DTO.getId(),50.0);
-            service.deleteAccount(1L);
-            service.withdraw(account2DTO.getId(),account2DTO.getUser().getSsn(),50.0);
-
-            List<Account> accounts = service.getAllAccounts();
-            for (Account account : accounts) {
-                System.out.println(account);
-            }
-
+            WorkloadConfig config = WorkloadConfig.parse(args);
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+            WorkloadReport report = new WorkloadDriver(config).run(service);
+            System.setErr(err);
+            System.out.println(report);
         } catch (Exception e) {
+            System.setErr(err);
             System.out.println(e.getMessage());
         }
     }
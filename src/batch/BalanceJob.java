@@ -0,0 +1,215 @@
+package batch;
+
+import dao.AccountSnapshot;
+import dao.IAccountDAO;
+import dao.PatchStatus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies a {@link BalanceRule} to every account of a store, such as
+ * monthly interest or fees.
+ * <p>
+ * The accounts are those of a snapshot taken when the job first starts,
+ * split into chunks of consecutive ids that a pool of workers takes in
+ * turn. Each account is changed with its own {@link IAccountDAO#patch}, so
+ * the store lock is held for one account at a time and live traffic is
+ * never paused for long. The same patch that changes the balance stamps the
+ * account with the job's stamp and advances the checkpoint counter of its
+ * chunk, so the stamp is as durable as the balance itself. A job that is
+ * stopped, fails or is interrupted, or whose process dies, resumes from its
+ * checkpoint file without applying the rule twice to any account: accounts
+ * the counter on file has not reached yet but that already carry the stamp
+ * are skipped. Running a finished job again changes nothing. An account only
+ * keeps the stamp of the last job that changed it, so a job must be resumed
+ * before another job runs over the same accounts.
+ * The job works on the store, so deposits an account service still holds
+ * pending must be folded with {@code IAccountService#foldPendingDeposits()}
+ * before it starts, or the rule will not count them.
+ */
+public class BalanceJob {
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final IAccountDAO dao;
+    private final BalanceRule rule;
+    private final Path checkpointPath;
+    private final int threads;
+    private final int chunkSize;
+    private volatile boolean stopped;
+
+    public BalanceJob(IAccountDAO dao, BalanceRule rule, Path checkpointPath) {
+        this(dao, rule, checkpointPath, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public BalanceJob(IAccountDAO dao, BalanceRule rule, Path checkpointPath, int threads, int chunkSize) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        this.dao = dao;
+        this.rule = rule;
+        this.checkpointPath = checkpointPath;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Runs the job, or resumes it if its checkpoint file exists.
+     *
+     * @return
+     *              the progress of the job when this run ended.
+     * @throws IOException
+     *              if the checkpoint cannot be read or written, or the rule failed.
+     */
+    public JobProgress run() throws IOException {
+        stopped = false;
+        try (JobCheckpoint checkpoint = Files.exists(checkpointPath)
+                ? JobCheckpoint.open(checkpointPath)
+                : JobCheckpoint.create(checkpointPath, snapshotIds(), chunkSize)) {
+            Run run = new Run(checkpoint);
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.execute(run::work);
+            }
+            workers.shutdown();
+            try {
+                while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // keep waiting for the workers
+                }
+            } catch (InterruptedException e) {
+                stopped = true;
+                workers.shutdownNow();
+                awaitUninterruptibly(workers);
+                checkpoint.sync();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Job interrupted");
+            }
+            checkpoint.sync();
+
+            Throwable failure = run.failure.get();
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure != null) throw new IOException("Job failed", failure);
+            return run.progress();
+        }
+    }
+
+    /**
+     * Asks a running job to stop after the account each worker is on.
+     * The next run resumes where it stopped.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private long[] snapshotIds() {
+        try (AccountSnapshot snapshot = dao.openSnapshot()) {
+            long[][] ids = {new long[Math.max(16, snapshot.size())]};
+            int[] count = {0};
+            snapshot.forEach(version -> {
+                if (count[0] == ids[0].length) ids[0] = Arrays.copyOf(ids[0], count[0] * 2);
+                ids[0][count[0]++] = version.getId();
+            });
+            long[] sorted = Arrays.copyOf(ids[0], count[0]);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    private static void awaitUninterruptibly(ExecutorService executor) {
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) return;
+            } catch (InterruptedException e) {
+                // the caller restores the interrupt
+            }
+        }
+    }
+
+    /**
+     * The state of a single run of the job.
+     */
+    private final class Run {
+        private final JobCheckpoint checkpoint;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final AtomicLong applied = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Run(JobCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        void work() {
+            int chunk;
+            while (!halted() && (chunk = nextChunk.getAndIncrement()) < checkpoint.chunks()) {
+                try {
+                    processChunk(chunk);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    flush(chunk);
+                }
+            }
+        }
+
+        private void processChunk(int chunk) {
+            int length = checkpoint.chunkLength(chunk);
+            for (int i = checkpoint.done(chunk); i < length && !halted(); i++) {
+                RuntimeException[] error = {null};
+                boolean[] done = {false};
+                PatchStatus status = dao.patch(checkpoint.id(chunk, i), null, account -> {
+                    if (account.getBatchStamp() == checkpoint.stamp()) {
+                        done[0] = true;
+                        checkpoint.advance(chunk);
+                        return;
+                    }
+                    double balance;
+                    try {
+                        balance = account.getBalance() + rule.adjustment(account);
+                        if (!Double.isFinite(balance) || balance < 0) {
+                            throw new IllegalStateException("rule gives balance " + balance + " to account " + account.getId());
+                        }
+                    } catch (RuntimeException e) {
+                        error[0] = e;
+                        return;
+                    }
+                    account.setBalance(balance);
+                    account.setBatchStamp(checkpoint.stamp());
+                    checkpoint.advance(chunk);
+                });
+                if (error[0] != null) throw error[0];
+
+                if (status == PatchStatus.NOT_FOUND) {
+                    checkpoint.advance(chunk);
+                    skipped.incrementAndGet();
+                } else if (!done[0]) {
+                    applied.incrementAndGet();
+                }
+            }
+        }
+
+        private void flush(int chunk) {
+            try {
+                checkpoint.flush(chunk);
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private boolean halted() {
+            return stopped || failure.get() != null || Thread.currentThread().isInterrupted();
+        }
+
+        JobProgress progress() {
+            return new JobProgress(checkpoint.totalDone(), checkpoint.total(), applied.get(), skipped.get());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package batch;
+
+import model.Account;
+
+/**
+ * Rule that computes the balance adjustment a batch job applies to an account.
+ */
+@FunctionalInterface
+public interface BalanceRule {
+    /**
+     * Computes the adjustment of an account from its current state.
+     * It runs under the store lock and must be quick.
+     *
+     * @param account
+     *              the account.
+     * @return
+     *              the amount to add to the balance, negative to charge it.
+     */
+    double adjustment(Account account);
+
+    /**
+     * Credits interest at a rate on the current balance.
+     *
+     * @param rate
+     *              the interest rate of the period, e.g. 0.01 for 1%.
+     * @return
+     *              the rule.
+     */
+    static BalanceRule interest(double rate) {
+        if (!Double.isFinite(rate) || rate < 0) throw new IllegalArgumentException("rate must be non-negative: " + rate);
+        return account -> account.getBalance() * rate;
+    }
+
+    /**
+     * Charges a fixed fee, never taking the balance below zero.
+     *
+     * @param fee
+     *              the fee.
+     * @return
+     *              the rule.
+     */
+    static BalanceRule fee(double fee) {
+        if (!Double.isFinite(fee) || fee < 0) throw new IllegalArgumentException("fee must be non-negative: " + fee);
+        return account -> -Math.min(fee, account.getBalance());
+    }
+}
@@ -0,0 +1,209 @@
+package batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Durable progress of a batch job.
+ * <p>
+ * The file holds the stamp of the job and the ids it covers, both fixed
+ * when the job first starts, followed by one counter per chunk of how many
+ * of its accounts are done. Each chunk is processed in id order by a single
+ * worker, so its counter tells where to resume. Counters are written in
+ * place, four bytes at a time, when a chunk finishes or the job stops; a
+ * counter on file can therefore lag behind the accounts done if the process
+ * dies in between, and the stamp the job leaves on each account it changes
+ * tells which of the accounts past the counter are already done.
+ */
+final class JobCheckpoint implements Closeable {
+    private static final int MAGIC = 0x42414A32;
+    private static final int HEADER_SIZE = 20;
+
+    private final FileChannel channel;
+    private final long stamp;
+    private final long[] ids;
+    private final int chunkSize;
+    private final AtomicIntegerArray done;
+
+    private JobCheckpoint(FileChannel channel, long stamp, long[] ids, int chunkSize, AtomicIntegerArray done) {
+        this.channel = channel;
+        this.stamp = stamp;
+        this.ids = ids;
+        this.chunkSize = chunkSize;
+        this.done = done;
+    }
+
+    /**
+     * Creates the checkpoint of a new job.
+     *
+     * @param path
+     *              the checkpoint file, which must not exist.
+     * @param ids
+     *              the sorted ids the job covers.
+     * @param chunkSize
+     *              the number of accounts per chunk.
+     * @return
+     *              the checkpoint, with a new stamp and no chunk done.
+     * @throws IOException
+     *              if the file cannot be written.
+     */
+    static JobCheckpoint create(Path path, long[] ids, int chunkSize) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int chunks = chunkCount(ids.length, chunkSize);
+            long stamp = newStamp();
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + ids.length * 8 + chunks * 4);
+            buffer.putInt(MAGIC).putLong(stamp).putInt(chunkSize).putInt(ids.length);
+            for (long id : ids) {
+                buffer.putLong(id);
+            }
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+            return new JobCheckpoint(channel, stamp, ids, chunkSize, new AtomicIntegerArray(chunks));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the checkpoint of a job that was started before.
+     *
+     * @param path
+     *              the checkpoint file.
+     * @return
+     *              the checkpoint, with the chunks done so far.
+     * @throws IOException
+     *              if the file cannot be read or is corrupt.
+     */
+    static JobCheckpoint open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) throw new IOException("Not a job checkpoint: " + path);
+            long stamp = header.getLong();
+            int chunkSize = header.getInt();
+            int count = header.getInt();
+            if (stamp == 0 || chunkSize < 1 || count < 0) throw new IOException("Corrupt job checkpoint: " + path);
+
+            int chunks = chunkCount(count, chunkSize);
+            ByteBuffer body = read(channel, HEADER_SIZE, count * 8 + chunks * 4);
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = body.getLong();
+            }
+            AtomicIntegerArray done = new AtomicIntegerArray(chunks);
+            for (int c = 0; c < chunks; c++) {
+                done.set(c, body.getInt());
+            }
+            return new JobCheckpoint(channel, stamp, ids, chunkSize, done);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the stamp the job leaves on the accounts it changes, never 0.
+     */
+    long stamp() {
+        return stamp;
+    }
+
+    int chunks() {
+        return done.length();
+    }
+
+    int chunkLength(int chunk) {
+        return Math.min(chunkSize, ids.length - chunk * chunkSize);
+    }
+
+    long id(int chunk, int index) {
+        return ids[chunk * chunkSize + index];
+    }
+
+    int done(int chunk) {
+        return done.get(chunk);
+    }
+
+    long total() {
+        return ids.length;
+    }
+
+    long totalDone() {
+        long total = 0;
+        for (int c = 0; c < done.length(); c++) {
+            total += done.get(c);
+        }
+        return total;
+    }
+
+    /**
+     * Records one more account of a chunk as done. Called by the worker of
+     * the chunk together with the change it records.
+     */
+    void advance(int chunk) {
+        done.incrementAndGet(chunk);
+    }
+
+    /**
+     * Writes the counter of a chunk to the file.
+     *
+     * @param chunk
+     *              the chunk.
+     * @throws IOException
+     *              if the file cannot be written.
+     */
+    void flush(int chunk) throws IOException {
+        ByteBuffer counter = ByteBuffer.allocate(4).putInt(0, done.get(chunk));
+        long position = HEADER_SIZE + (long) ids.length * 8 + chunk * 4L;
+        while (counter.hasRemaining()) {
+            channel.write(counter, position + counter.position());
+        }
+    }
+
+    /**
+     * Makes the written counters durable.
+     *
+     * @throws IOException
+     *              if the file cannot be synced.
+     */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static long newStamp() {
+        long stamp;
+        do {
+            stamp = new SecureRandom().nextLong();
+        } while (stamp == 0);
+        return stamp;
+    }
+
+    private static int chunkCount(int count, int chunkSize) {
+        return (count + chunkSize - 1) / chunkSize;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Truncated job checkpoint");
+        }
+        return buffer.flip();
+    }
+}
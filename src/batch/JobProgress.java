@@ -0,0 +1,66 @@
+package batch;
+
+/**
+ * Immutable progress report of a batch job.
+ */
+public final class JobProgress {
+    private final long done;
+    private final long total;
+    private final long applied;
+    private final long skipped;
+
+    public JobProgress(long done, long total, long applied, long skipped) {
+        this.done = done;
+        this.total = total;
+        this.applied = applied;
+        this.skipped = skipped;
+    }
+
+    /**
+     * Returns the accounts done over all the runs of the job.
+     *
+     * @return
+     *              the accounts done.
+     */
+    public long getDone() {
+        return done;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the accounts changed by this run.
+     *
+     * @return
+     *              the accounts changed.
+     */
+    public long getApplied() {
+        return applied;
+    }
+
+    /**
+     * Returns the accounts this run found deleted.
+     *
+     * @return
+     *              the accounts skipped.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public boolean isComplete() {
+        return done == total;
+    }
+
+    @Override
+    public String toString() {
+        return "JobProgress{" +
+                "done=" + done +
+                ", total=" + total +
+                ", applied=" + applied +
+                ", skipped=" + skipped +
+                '}';
+    }
+}
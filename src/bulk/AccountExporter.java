@@ -0,0 +1,117 @@
+package bulk;
+
+import codec.BinaryCodec;
+import dao.AccountSnapshot;
+import dao.AccountVersion;
+import dao.IAccountDAO;
+import model.Account;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exports all the accounts to CSV or binary files.
+ * <p>
+ * Accounts are streamed from a snapshot of the store, so the export is
+ * consistent, does not copy the store and does not block writers. Pending
+ * deposits of an account service are in the export only once folded into
+ * the store.
+ */
+public class AccountExporter {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final IAccountDAO dao;
+
+    public AccountExporter(IAccountDAO dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Exports all the accounts to a CSV file.
+     *
+     * @param target
+     *              the CSV file.
+     * @return
+     *              the number of accounts exported.
+     * @throws IOException
+     *              if the file cannot be written.
+     */
+    public long exportCsv(Path target) throws IOException {
+        long[] count = new long[1];
+        StringBuilder row = new StringBuilder(128);
+        try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8);
+             AccountSnapshot snapshot = dao.openSnapshot()) {
+            writer.write(CsvFormat.HEADER);
+            writer.newLine();
+            snapshot.forEach(account -> {
+                row.setLength(0);
+                CsvFormat.format(row, account.getId(), account.getHolder(), account.getIban(), account.getBalance());
+                try {
+                    writer.append(row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
+
+    /**
+     * Exports all the accounts to a file of binary account records.
+     *
+     * @param target
+     *              the binary file.
+     * @return
+     *              the number of accounts exported.
+     * @throws IOException
+     *              if the file cannot be written.
+     */
+    public long exportBinary(Path target) throws IOException {
+        long[] count = new long[1];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        Account scratch = new Account();
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             AccountSnapshot snapshot = dao.openSnapshot()) {
+            snapshot.forEach(account -> {
+                copy(account, scratch);
+                try {
+                    if (buffer.remaining() < BinaryCodec.maxSize(scratch)) drain(buffer, channel);
+                    BinaryCodec.write(buffer, scratch);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+            drain(buffer, channel);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
+
+    private static void copy(AccountVersion version, Account account) {
+        account.setId(version.getId());
+        account.setHolder(version.getHolder());
+        account.setIban(version.getIban());
+        account.setBalance(version.getBalance());
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,324 @@
+package bulk;
+
+import codec.BinaryCodec;
+import dao.IAccountDAO;
+import model.Account;
+import model.IbanCodec;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Imports accounts in bulk from CSV or binary files.
+ * <p>
+ * The source is memory-mapped window by window. Each window is cut at the
+ * last complete row and parsed by a pool of threads, while a single inserter
+ * thread hands the parsed batches to {@link IAccountDAO#insertAll}. The batch
+ * queue and the number of windows in flight are bounded, so parsing slows down
+ * when inserting falls behind. Rows that fail to parse or validate, and
+ * duplicates rejected by the store, are written to a reject file with the reason.
+ */
+public class AccountImporter {
+    private static final int WINDOW_SIZE = 16 << 20;
+    private static final int BATCH_SIZE = 1024;
+    private static final List<Account> END = Collections.emptyList();
+
+    private final IAccountDAO dao;
+    private final int threads;
+    private final ProgressListener listener;
+
+    public AccountImporter(IAccountDAO dao) {
+        this(dao, Runtime.getRuntime().availableProcessors(), progress -> {});
+    }
+
+    public AccountImporter(IAccountDAO dao, int threads, ProgressListener listener) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        this.dao = dao;
+        this.threads = threads;
+        this.listener = listener;
+    }
+
+    /**
+     * Imports accounts from a CSV file.
+     *
+     * @param source
+     *              the CSV file.
+     * @param rejects
+     *              the file the rejected rows are written to.
+     * @return
+     *              the final progress of the import.
+     * @throws IOException
+     *              if the files cannot be read or written.
+     */
+    public ImportProgress importCsv(Path source, Path rejects) throws IOException {
+        return run(source, rejects, true);
+    }
+
+    /**
+     * Imports accounts from a file of binary account records.
+     *
+     * @param source
+     *              the binary file.
+     * @param rejects
+     *              the file the rejected records are written to.
+     * @return
+     *              the final progress of the import.
+     * @throws IOException
+     *              if the files cannot be read or written, or the file is corrupt.
+     */
+    public ImportProgress importBinary(Path source, Path rejects) throws IOException {
+        return run(source, rejects, false);
+    }
+
+    private ImportProgress run(Path source, Path rejects, boolean csv) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+             BufferedWriter rejectWriter = Files.newBufferedWriter(rejects, StandardCharsets.UTF_8)) {
+            Run run = new Run(channel.size(), rejectWriter);
+            ExecutorService parsers = Executors.newFixedThreadPool(threads);
+            Semaphore windows = new Semaphore(threads * 2);
+            Thread inserter = new Thread(run::insertBatches, "account-import-inserter");
+            inserter.start();
+
+            try {
+                long position = 0;
+                while (position < run.totalBytes && run.failure.get() == null) {
+                    long length = Math.min(WINDOW_SIZE, run.totalBytes - position);
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    boolean last = position + length == run.totalBytes;
+                    int end = csv ? lastLineEnd(window, last) : lastRecordEnd(window, position, last);
+                    if (end == 0) throw new IOException("Row at offset " + position + " is larger than " + WINDOW_SIZE + " bytes");
+
+                    window.limit(end);
+                    long offset = position;
+                    windows.acquire();
+                    parsers.execute(() -> {
+                        try {
+                            if (csv) run.parseCsv(window);
+                            else run.parseBinary(window, offset);
+                            run.bytesRead.addAndGet(window.limit());
+                        } catch (Throwable t) {
+                            run.failure.compareAndSet(null, t);
+                        } finally {
+                            windows.release();
+                        }
+                    });
+                    position += end;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Import interrupted");
+            } finally {
+                parsers.shutdown();
+                awaitUninterruptibly(parsers);
+                run.finish(inserter);
+            }
+
+            Throwable failure = run.failure.get();
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure != null) throw new IOException("Import failed", failure);
+            return run.progress();
+        }
+    }
+
+    /**
+     * Returns the end of the last complete row in the window, or the
+     * end of the window if it is the last one. Line breaks inside quoted
+     * fields do not end a row, so the window is scanned from its start,
+     * which is always the start of a row.
+     */
+    private static int lastLineEnd(ByteBuffer window, boolean last) {
+        if (last) return window.limit();
+
+        int end = 0;
+        boolean quoted = false;
+        for (int i = 0; i < window.limit(); i++) {
+            byte b = window.get(i);
+            if (b == '"') quoted = !quoted;
+            else if (b == '\n' && !quoted) end = i + 1;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the end of the last complete record in the window.
+     */
+    private static int lastRecordEnd(ByteBuffer window, long position, boolean last) throws IOException {
+        int end = 0;
+        while (end + 8 <= window.limit()) {
+            int length = BinaryCodec.isRecord(window, end) ? BinaryCodec.recordLength(window, end) : 0;
+            if (length < 8) throw new IOException("Corrupt record at offset " + (position + end));
+            if (end + length > window.limit()) break;
+            end += length;
+        }
+        if (last && end != window.limit()) throw new IOException("Truncated record at offset " + (position + end));
+        return end;
+    }
+
+    private static void awaitUninterruptibly(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * The state of a single import.
+     */
+    private final class Run {
+        private final long totalBytes;
+        private final BufferedWriter rejectWriter;
+        private final BlockingQueue<List<Account>> batches = new ArrayBlockingQueue<>(threads * 4);
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Run(long totalBytes, BufferedWriter rejectWriter) {
+            this.totalBytes = totalBytes;
+            this.rejectWriter = rejectWriter;
+        }
+
+        void parseCsv(ByteBuffer window) throws IOException, InterruptedException {
+            List<Account> batch = new ArrayList<>(BATCH_SIZE);
+            byte[] line = new byte[256];
+            int start = 0;
+            int limit = window.limit();
+            boolean quoted = false;
+            for (int i = 0; i <= limit; i++) {
+                if (i < limit) {
+                    byte b = window.get(i);
+                    if (b == '"') quoted = !quoted;
+                    if (b != '\n' || quoted) continue;
+                }
+
+                int end = i > start && window.get(i - 1) == '\r' ? i - 1 : i;
+                int length = end - start;
+                if (length > line.length) line = new byte[Math.max(length, line.length * 2)];
+                window.position(start);
+                window.get(line, 0, length);
+                start = i + 1;
+
+                String row = new String(line, 0, length, StandardCharsets.UTF_8);
+                if (row.isEmpty() || row.equals(CsvFormat.HEADER)) continue;
+                try {
+                    batch.add(CsvFormat.parse(row));
+                } catch (IllegalArgumentException e) {
+                    reject(e.getMessage(), row);
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    batches.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) batches.put(batch);
+        }
+
+        void parseBinary(ByteBuffer window, long offset) throws IOException, InterruptedException {
+            List<Account> batch = new ArrayList<>(BATCH_SIZE);
+            while (window.hasRemaining()) {
+                long recordOffset = offset + window.position();
+                Account account;
+                try {
+                    account = BinaryCodec.readAccount(window);
+                } catch (RuntimeException e) {
+                    throw new IOException("Corrupt record at offset " + recordOffset, e);
+                }
+                if (!IbanCodec.isValid(account.getIban())) {
+                    reject("iban " + account.getIban() + " is not valid", "offset " + recordOffset);
+                } else if (!Double.isFinite(account.getBalance()) || account.getBalance() < 0) {
+                    reject("balance " + account.getBalance() + " is not valid", "offset " + recordOffset);
+                } else {
+                    account.setIban(IbanCodec.normalize(account.getIban()));
+                    batch.add(account);
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    batches.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) batches.put(batch);
+        }
+
+        /**
+         * Inserts the parsed batches until the end marker. After a failure
+         * the batches are still drained, so that no parser stays blocked.
+         */
+        void insertBatches() {
+            while (true) {
+                List<Account> batch;
+                try {
+                    batch = batches.take();
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                    return;
+                }
+                if (batch == END) return;
+                if (failure.get() != null) continue;
+
+                try {
+                    List<Account> duplicates = dao.insertAll(batch);
+                    imported.addAndGet(batch.size() - duplicates.size());
+                    for (Account account : duplicates) {
+                        reject("id or iban already exists", "id " + account.getId() + ", iban " + account.getIban());
+                    }
+                    listener.onProgress(progress());
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        }
+
+        void finish(Thread inserter) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (failure.get() != null) batches.clear();
+                    batches.put(END);
+                    inserter.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        void reject(String reason, String row) throws IOException {
+            rejected.incrementAndGet();
+            synchronized (rejectWriter) {
+                rejectWriter.write(reason);
+                rejectWriter.write('\t');
+                rejectWriter.write(row);
+                rejectWriter.newLine();
+            }
+        }
+
+        ImportProgress progress() {
+            return new ImportProgress(bytesRead.get(), totalBytes, imported.get(), rejected.get());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package bulk;
+
+import model.Account;
+import model.IbanCodec;
+import model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The CSV row format of accounts.
+ * <p>
+ * The columns are id, holder id, first name, last name, ssn, iban and balance.
+ * Fields containing commas, quotes or line breaks are quoted. Exported rows
+ * carry the ssn digest, written as {@code ~} and 32 hex digits, since the raw
+ * ssn is not stored; imported rows may carry either the raw ssn or such a
+ * digest, or leave it empty if the holder has none. An account without a
+ * holder is written with a holder id of 0 and empty holder fields.
+ */
+final class CsvFormat {
+    static final String HEADER = "id,holderId,firstname,lastname,ssn,iban,balance";
+    private static final int COLUMNS = 7;
+    private static final char DIGEST_PREFIX = '~';
+
+    private CsvFormat() {}
+
+    /**
+     * Parses and validates a row.
+     *
+     * @param line
+     *              the row, without the line terminator.
+     * @return
+     *              the account.
+     * @throws IllegalArgumentException
+     *              if the row is not a valid account.
+     */
+    static Account parse(String line) {
+        List<String> fields = split(line);
+        if (fields.size() != COLUMNS) {
+            throw new IllegalArgumentException("expected " + COLUMNS + " columns but found " + fields.size());
+        }
+
+        User holder = parseHolder(fields);
+
+        String iban = fields.get(5);
+        if (!IbanCodec.isValid(iban)) throw new IllegalArgumentException("iban " + iban + " is not valid");
+
+        double balance;
+        try {
+            balance = Double.parseDouble(fields.get(6));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("balance " + fields.get(6) + " is not a number");
+        }
+        if (!Double.isFinite(balance) || balance < 0) {
+            throw new IllegalArgumentException("balance " + balance + " is not valid");
+        }
+
+        Account account = new Account(holder, IbanCodec.normalize(iban), balance);
+        account.setId(parseLong(fields.get(0), "id"));
+        return account;
+    }
+
+    /**
+     * Appends an account as a row, with its line terminator.
+     *
+     * @param sb
+     *              the builder to append to.
+     * @param id
+     *              the id of the account.
+     * @param holder
+     *              the holder of the account.
+     * @param iban
+     *              the iban of the account.
+     * @param balance
+     *              the balance of the account.
+     */
+    static void format(StringBuilder sb, long id, User holder, String iban, double balance) {
+        sb.append(id).append(',');
+        if (holder != null) {
+            sb.append(holder.getId()).append(',');
+            appendField(sb, holder.getFirstname());
+            sb.append(',');
+            appendField(sb, holder.getLastname());
+            sb.append(',');
+            if (holder.hasSsn()) {
+                sb.append(DIGEST_PREFIX);
+                appendHex(sb, holder.getSsnHigh());
+                appendHex(sb, holder.getSsnLow());
+            }
+        } else {
+            sb.append("0,,,");
+        }
+        sb.append(',');
+        appendField(sb, iban);
+        sb.append(',').append(balance).append('\n');
+    }
+
+    private static User parseHolder(List<String> fields) {
+        long holderId = parseLong(fields.get(1), "holder id");
+        if (holderId == 0 && fields.get(2).isEmpty() && fields.get(3).isEmpty() && fields.get(4).isEmpty()) return null;
+
+        User holder = new User();
+        holder.setId(holderId);
+        holder.setFirstname(fields.get(2));
+        holder.setLastname(fields.get(3));
+        setSsn(holder, fields.get(4));
+        return holder;
+    }
+
+    private static void setSsn(User holder, String ssn) {
+        if (ssn.isEmpty()) return;
+
+        if (ssn.length() == 33 && ssn.charAt(0) == DIGEST_PREFIX) {
+            try {
+                holder.setSsnDigest(Long.parseUnsignedLong(ssn.substring(1, 17), 16),
+                        Long.parseUnsignedLong(ssn.substring(17), 16));
+                return;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("ssn digest " + ssn + " is not valid");
+            }
+        }
+        holder.setSsn(ssn);
+    }
+
+    private static long parseLong(String field, String name) {
+        try {
+            return Long.parseLong(field);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " " + field + " is not a number");
+        }
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>(COLUMNS);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote");
+
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static void appendField(StringBuilder sb, String field) {
+        if (field == null) return;
+
+        if (field.indexOf(',') == -1 && field.indexOf('"') == -1 && field.indexOf('\n') == -1 && field.indexOf('\r') == -1) {
+            sb.append(field);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') sb.append('"');
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static void appendHex(StringBuilder sb, long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            sb.append(Character.forDigit((int) (value >>> shift) & 0xF, 16));
+        }
+    }
+}
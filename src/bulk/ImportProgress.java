@@ -0,0 +1,54 @@
+package bulk;
+
+/**
+ * Immutable progress report of a bulk import.
+ */
+public final class ImportProgress {
+    private final long bytesRead;
+    private final long totalBytes;
+    private final long imported;
+    private final long rejected;
+
+    public ImportProgress(long bytesRead, long totalBytes, long imported, long rejected) {
+        this.bytesRead = bytesRead;
+        this.totalBytes = totalBytes;
+        this.imported = imported;
+        this.rejected = rejected;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Returns the fraction of the source parsed so far.
+     *
+     * @return
+     *              a value between 0 and 1.
+     */
+    public double getFraction() {
+        return totalBytes == 0 ? 1.0 : (double) bytesRead / totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportProgress{" +
+                "bytesRead=" + bytesRead +
+                ", totalBytes=" + totalBytes +
+                ", imported=" + imported +
+                ", rejected=" + rejected +
+                '}';
+    }
+}
@@ -0,0 +1,15 @@
+package bulk;
+
+/**
+ * Receives the progress of a bulk import.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    /**
+     * Called after each batch is inserted.
+     *
+     * @param progress
+     *              the progress so far.
+     */
+    void onProgress(ImportProgress progress);
+}
@@ -0,0 +1,108 @@
+package codec;
+
+import model.Account;
+import model.SsnDigest;
+
+import java.nio.ByteBuffer;
+
+import static codec.BinaryCodec.*;
+import static codec.BinaryFormat.*;
+
+/**
+ * Flyweight over an account record in a buffer.
+ * <p>
+ * The fields are read in place on each call, so nothing is deserialized
+ * until it is asked for. One view can be moved across many records with
+ * {@link #wrap}.
+ */
+public final class AccountView {
+    private ByteBuffer buffer;
+    private int offset;
+
+    /**
+     * Points the view at the account record at the given offset.
+     *
+     * @param buffer
+     *              the buffer holding the record.
+     * @param offset
+     *              the offset of the record.
+     * @return
+     *              this view.
+     */
+    public AccountView wrap(ByteBuffer buffer, int offset) {
+        checkRecord(buffer, offset, TYPE_ACCOUNT);
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Returns the length of the record, to move to the next one.
+     *
+     * @return
+     *              the length in bytes.
+     */
+    public int length() {
+        return buffer.getInt(offset + LENGTH_OFFSET);
+    }
+
+    public long getId() {
+        return buffer.getLong(offset + ACCOUNT_ID);
+    }
+
+    public double getBalance() {
+        return buffer.getDouble(offset + ACCOUNT_BALANCE);
+    }
+
+    public long getHolderId() {
+        return buffer.getLong(offset + ACCOUNT_HOLDER_ID);
+    }
+
+    /**
+     * Checks an ssn against the holder's digest without decoding the record.
+     *
+     * @param ssn
+     *              the ssn to be checked.
+     * @return
+     *              true if the ssn matches, false otherwise.
+     */
+    public boolean ssnMatches(CharSequence ssn) {
+        if (ssn == null || (buffer.get(offset + ACCOUNT_FLAGS) & HAS_SSN) == 0) return false;
+
+        return SsnDigest.matches(buffer.getLong(offset + ACCOUNT_SSN_HIGH), buffer.getLong(offset + ACCOUNT_SSN_LOW), ssn);
+    }
+
+    /**
+     * Returns the iban as characters read in place.
+     *
+     * @return
+     *              the iban.
+     */
+    public CharSequence getIban() {
+        return stringView(buffer, offset + ACCOUNT_STRINGS);
+    }
+
+    public CharSequence getFirstname() {
+        return stringView(buffer, firstnameOffset());
+    }
+
+    public CharSequence getLastname() {
+        int first = firstnameOffset();
+        return stringView(buffer, first + stringSize(buffer, first));
+    }
+
+    /**
+     * Decodes the whole record.
+     *
+     * @return
+     *              the account.
+     */
+    public Account toAccount() {
+        return readAccount(buffer.duplicate().position(offset));
+    }
+
+    private int firstnameOffset() {
+        int iban = offset + ACCOUNT_STRINGS;
+        return iban + stringSize(buffer, iban);
+    }
+}
@@ -0,0 +1,305 @@
+package codec;
+
+import dto.AccountDTO;
+import dto.UserDTO;
+import model.Account;
+import model.User;
+
+import java.nio.ByteBuffer;
+
+import static codec.BinaryFormat.*;
+
+/**
+ * Versioned binary codec for accounts, users and their DTOs.
+ * <p>
+ * Records are written at the current position of the buffer and read from
+ * it, without intermediate copies. Accounts can also be read field by field
+ * in place with {@link AccountView}. Model users carry only the ssn digest,
+ * while user DTOs carry the ssn itself.
+ */
+public final class BinaryCodec {
+    static final int ACCOUNT_ID = 8;
+    static final int ACCOUNT_BALANCE = 16;
+    static final int ACCOUNT_HOLDER_ID = 24;
+    static final int ACCOUNT_SSN_HIGH = 32;
+    static final int ACCOUNT_SSN_LOW = 40;
+    static final int ACCOUNT_FLAGS = 48;
+    static final int ACCOUNT_STRINGS = 49;
+    /** The batch stamp is the last field of an account record since version 2. */
+    private static final int ACCOUNT_STAMP_SIZE = 8;
+    private static final byte ACCOUNT_STAMP_VERSION = 2;
+
+    static final byte HAS_HOLDER = 1;
+    static final byte HAS_SSN = 2;
+
+    private static final int USER_ID = 8;
+    private static final int USER_SSN_HIGH = 16;
+    private static final int USER_SSN_LOW = 24;
+    private static final int USER_FLAGS = 32;
+
+    private static final int ACCOUNT_DTO_ID = 8;
+    private static final int ACCOUNT_DTO_BALANCE = 16;
+    private static final int ACCOUNT_DTO_FLAGS = 24;
+    private static final int ACCOUNT_DTO_USER_ID = 25;
+
+    private BinaryCodec() {}
+
+    /**
+     * Writes an account record.
+     *
+     * @param buffer
+     *              the buffer to write to.
+     * @param account
+     *              the account to be written.
+     * @return
+     *              the number of bytes written.
+     */
+    public static int write(ByteBuffer buffer, Account account) {
+        int start = buffer.position();
+        User holder = account.getHolder();
+        startRecord(buffer, TYPE_ACCOUNT);
+        buffer.putLong(account.getId()).putDouble(account.getBalance());
+        buffer.putLong(holder == null ? 0L : holder.getId());
+        buffer.putLong(holder == null ? 0L : holder.getSsnHigh());
+        buffer.putLong(holder == null ? 0L : holder.getSsnLow());
+        buffer.put(holderFlags(holder));
+        putString(buffer, account.getIban());
+        putString(buffer, holder == null ? null : holder.getFirstname());
+        putString(buffer, holder == null ? null : holder.getLastname());
+        buffer.putLong(account.getBatchStamp());
+        finishRecord(buffer, start);
+        return buffer.position() - start;
+    }
+
+    /**
+     * Reads an account record.
+     *
+     * @param buffer
+     *              the buffer to read from.
+     * @return
+     *              the account.
+     */
+    public static Account readAccount(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = checkRecord(buffer, start, TYPE_ACCOUNT);
+        byte flags = buffer.get(start + ACCOUNT_FLAGS);
+
+        Account account = new Account();
+        account.setId(buffer.getLong(start + ACCOUNT_ID));
+        account.setBalance(buffer.getDouble(start + ACCOUNT_BALANCE));
+        if (buffer.get(start + VERSION_OFFSET) >= ACCOUNT_STAMP_VERSION) {
+            account.setBatchStamp(buffer.getLong(start + length - ACCOUNT_STAMP_SIZE));
+        }
+        buffer.position(start + ACCOUNT_STRINGS);
+        account.setIban(getString(buffer));
+        String firstname = getString(buffer);
+        String lastname = getString(buffer);
+        if ((flags & HAS_HOLDER) == 0) {
+            account.setHolder(null);
+        } else {
+            User holder = new User();
+            holder.setId(buffer.getLong(start + ACCOUNT_HOLDER_ID));
+            holder.setFirstname(firstname);
+            holder.setLastname(lastname);
+            if ((flags & HAS_SSN) != 0) {
+                holder.setSsnDigest(buffer.getLong(start + ACCOUNT_SSN_HIGH), buffer.getLong(start + ACCOUNT_SSN_LOW));
+            }
+            account.setHolder(holder);
+        }
+        buffer.position(start + length);
+        return account;
+    }
+
+    /**
+     * Writes a user record.
+     *
+     * @param buffer
+     *              the buffer to write to.
+     * @param user
+     *              the user to be written.
+     * @return
+     *              the number of bytes written.
+     */
+    public static int write(ByteBuffer buffer, User user) {
+        int start = buffer.position();
+        startRecord(buffer, TYPE_USER);
+        buffer.putLong(user.getId()).putLong(user.getSsnHigh()).putLong(user.getSsnLow());
+        buffer.put(holderFlags(user));
+        putString(buffer, user.getFirstname());
+        putString(buffer, user.getLastname());
+        finishRecord(buffer, start);
+        return buffer.position() - start;
+    }
+
+    /**
+     * Reads a user record.
+     *
+     * @param buffer
+     *              the buffer to read from.
+     * @return
+     *              the user.
+     */
+    public static User readUser(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = checkRecord(buffer, start, TYPE_USER);
+
+        User user = new User();
+        user.setId(buffer.getLong(start + USER_ID));
+        if ((buffer.get(start + USER_FLAGS) & HAS_SSN) != 0) {
+            user.setSsnDigest(buffer.getLong(start + USER_SSN_HIGH), buffer.getLong(start + USER_SSN_LOW));
+        }
+        buffer.position(start + USER_FLAGS + 1);
+        user.setFirstname(getString(buffer));
+        user.setLastname(getString(buffer));
+        buffer.position(start + length);
+        return user;
+    }
+
+    /**
+     * Writes an account DTO record.
+     *
+     * @param buffer
+     *              the buffer to write to.
+     * @param accountDTO
+     *              the account DTO to be written.
+     * @return
+     *              the number of bytes written.
+     */
+    public static int write(ByteBuffer buffer, AccountDTO accountDTO) {
+        int start = buffer.position();
+        UserDTO user = accountDTO.getUser();
+        startRecord(buffer, TYPE_ACCOUNT_DTO);
+        buffer.putLong(accountDTO.getId()).putDouble(accountDTO.getBalance());
+        buffer.put(user == null ? 0 : HAS_HOLDER).putLong(user == null ? 0L : user.getId());
+        putString(buffer, accountDTO.getIban());
+        putString(buffer, user == null ? null : user.getFirstname());
+        putString(buffer, user == null ? null : user.getLastname());
+        putString(buffer, user == null ? null : user.getSsn());
+        finishRecord(buffer, start);
+        return buffer.position() - start;
+    }
+
+    /**
+     * Reads an account DTO record.
+     *
+     * @param buffer
+     *              the buffer to read from.
+     * @return
+     *              the account DTO.
+     */
+    public static AccountDTO readAccountDTO(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = checkRecord(buffer, start, TYPE_ACCOUNT_DTO);
+
+        AccountDTO accountDTO = new AccountDTO();
+        accountDTO.setId(buffer.getLong(start + ACCOUNT_DTO_ID));
+        accountDTO.setBalance(buffer.getDouble(start + ACCOUNT_DTO_BALANCE));
+        buffer.position(start + ACCOUNT_DTO_USER_ID + 8);
+        accountDTO.setIban(getString(buffer));
+        String firstname = getString(buffer);
+        String lastname = getString(buffer);
+        String ssn = getString(buffer);
+        if ((buffer.get(start + ACCOUNT_DTO_FLAGS) & HAS_HOLDER) != 0) {
+            accountDTO.setUser(new UserDTO(buffer.getLong(start + ACCOUNT_DTO_USER_ID), firstname, lastname, ssn));
+        }
+        buffer.position(start + length);
+        return accountDTO;
+    }
+
+    /**
+     * Writes a user DTO record.
+     *
+     * @param buffer
+     *              the buffer to write to.
+     * @param userDTO
+     *              the user DTO to be written.
+     * @return
+     *              the number of bytes written.
+     */
+    public static int write(ByteBuffer buffer, UserDTO userDTO) {
+        int start = buffer.position();
+        startRecord(buffer, TYPE_USER_DTO);
+        buffer.putLong(userDTO.getId());
+        putString(buffer, userDTO.getFirstname());
+        putString(buffer, userDTO.getLastname());
+        putString(buffer, userDTO.getSsn());
+        finishRecord(buffer, start);
+        return buffer.position() - start;
+    }
+
+    /**
+     * Reads a user DTO record.
+     *
+     * @param buffer
+     *              the buffer to read from.
+     * @return
+     *              the user DTO.
+     */
+    public static UserDTO readUserDTO(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = checkRecord(buffer, start, TYPE_USER_DTO);
+
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(buffer.getLong(start + HEADER_SIZE));
+        buffer.position(start + HEADER_SIZE + 8);
+        userDTO.setFirstname(getString(buffer));
+        userDTO.setLastname(getString(buffer));
+        userDTO.setSsn(getString(buffer));
+        buffer.position(start + length);
+        return userDTO;
+    }
+
+    /**
+     * Checks if a record of this format starts at the given offset.
+     *
+     * @param buffer
+     *              the buffer to be checked.
+     * @param offset
+     *              the offset to be checked.
+     * @return
+     *              true if a record header is there, false otherwise.
+     */
+    public static boolean isRecord(ByteBuffer buffer, int offset) {
+        return offset + HEADER_SIZE <= buffer.limit() && buffer.getShort(offset + MAGIC_OFFSET) == MAGIC;
+    }
+
+    /**
+     * Returns the length of the record at the given offset, to skip over it
+     * without reading it.
+     *
+     * @param buffer
+     *              the buffer holding the record.
+     * @param offset
+     *              the offset of the record.
+     * @return
+     *              the length of the record in bytes.
+     */
+    public static int recordLength(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + LENGTH_OFFSET);
+    }
+
+    /**
+     * Returns an upper bound of the size of an account record, to size buffers.
+     *
+     * @param account
+     *              the account.
+     * @return
+     *              the maximum size in bytes.
+     */
+    public static int maxSize(Account account) {
+        User holder = account.getHolder();
+        return ACCOUNT_STRINGS + maxStringSize(account.getIban())
+                + maxStringSize(holder == null ? null : holder.getFirstname())
+                + maxStringSize(holder == null ? null : holder.getLastname());
+    }
+
+    private static int maxStringSize(String s) {
+        return s == null ? 2 : 3 + s.length() * 2;
+    }
+
+    private static byte holderFlags(User holder) {
+        if (holder == null) return 0;
+
+        return holder.hasSsn() ? HAS_HOLDER | HAS_SSN : HAS_HOLDER;
+    }
+}
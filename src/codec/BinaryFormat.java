@@ -0,0 +1,161 @@
+package codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout constants and string primitives of the binary record format.
+ * <p>
+ * Every record starts with an 8-byte header: a 2-byte magic, a format version,
+ * a record type and the total record length. Fixed-width fields follow at
+ * fixed offsets, so they can be read in place, then the strings; fields added
+ * by a later version come after the strings, so older records still parse.
+ * A string is a 2-byte character count, an encoding byte and the characters,
+ * one byte each when they all fit in Latin-1 and two bytes each otherwise.
+ * Multi-byte values are big-endian, the default order of {@link ByteBuffer}.
+ */
+final class BinaryFormat {
+    static final short MAGIC = (short) 0xBA5E;
+    static final byte VERSION = 2;
+
+    static final byte TYPE_ACCOUNT = 1;
+    static final byte TYPE_USER = 2;
+    static final byte TYPE_ACCOUNT_DTO = 3;
+    static final byte TYPE_USER_DTO = 4;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 2;
+    static final int TYPE_OFFSET = 3;
+    static final int LENGTH_OFFSET = 4;
+    static final int HEADER_SIZE = 8;
+
+    private static final byte LATIN1 = 0;
+    private static final byte UTF16 = 1;
+    private static final int NULL_STRING = 0xFFFF;
+
+    private BinaryFormat() {}
+
+    /**
+     * Writes a record header with a zero length, to be patched by {@link #finishRecord}.
+     */
+    static void startRecord(ByteBuffer buffer, byte type) {
+        buffer.putShort(MAGIC).put(VERSION).put(type).putInt(0);
+    }
+
+    /**
+     * Patches the length of a record that started at the given offset.
+     */
+    static void finishRecord(ByteBuffer buffer, int start) {
+        buffer.putInt(start + LENGTH_OFFSET, buffer.position() - start);
+    }
+
+    /**
+     * Checks the header of the record at the given offset.
+     *
+     * @return
+     *              the length of the record.
+     */
+    static int checkRecord(ByteBuffer buffer, int offset, byte type) {
+        if (buffer.getShort(offset + MAGIC_OFFSET) != MAGIC) {
+            throw new IllegalArgumentException("No record at offset " + offset);
+        }
+        if (buffer.get(offset + VERSION_OFFSET) > VERSION) {
+            throw new IllegalArgumentException("Unsupported record version " + buffer.get(offset + VERSION_OFFSET));
+        }
+        if (buffer.get(offset + TYPE_OFFSET) != type) {
+            throw new IllegalArgumentException("Expected record type " + type + " but found " + buffer.get(offset + TYPE_OFFSET));
+        }
+        return buffer.getInt(offset + LENGTH_OFFSET);
+    }
+
+    static void putString(ByteBuffer buffer, String s) {
+        if (s == null) {
+            buffer.putShort((short) NULL_STRING);
+            return;
+        }
+        if (s.length() >= NULL_STRING) throw new IllegalArgumentException("String too long: " + s.length());
+
+        boolean latin1 = true;
+        for (int i = 0; i < s.length() && latin1; i++) {
+            latin1 = s.charAt(i) <= 0xFF;
+        }
+
+        buffer.putShort((short) s.length()).put(latin1 ? LATIN1 : UTF16);
+        for (int i = 0; i < s.length(); i++) {
+            if (latin1) buffer.put((byte) s.charAt(i));
+            else buffer.putChar(s.charAt(i));
+        }
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int count = Short.toUnsignedInt(buffer.getShort());
+        if (count == NULL_STRING) return null;
+
+        boolean latin1 = buffer.get() == LATIN1;
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i++) {
+            chars[i] = latin1 ? (char) (buffer.get() & 0xFF) : buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the size in bytes of the string at the given offset.
+     */
+    static int stringSize(ByteBuffer buffer, int offset) {
+        int count = Short.toUnsignedInt(buffer.getShort(offset));
+        if (count == NULL_STRING) return 2;
+
+        return 3 + (buffer.get(offset + 2) == LATIN1 ? count : count * 2);
+    }
+
+    /**
+     * Returns a view of the string at the given offset that reads the
+     * characters in place, or {@code null} for a null string.
+     */
+    static CharSequence stringView(ByteBuffer buffer, int offset) {
+        int count = Short.toUnsignedInt(buffer.getShort(offset));
+        if (count == NULL_STRING) return null;
+
+        return new StringView(buffer, offset + 3, count, buffer.get(offset + 2) == LATIN1);
+    }
+
+    private static final class StringView implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+        private final boolean latin1;
+
+        StringView(ByteBuffer buffer, int offset, int length, boolean latin1) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+            this.latin1 = latin1;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index " + index);
+
+            return latin1 ? (char) (buffer.get(offset + index) & 0xFF) : buffer.getChar(offset + index * 2);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                sb.append(charAt(i));
+            }
+            return sb.toString();
+        }
+    }
+}
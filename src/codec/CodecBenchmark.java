@@ -0,0 +1,72 @@
+package codec;
+
+import dto.AccountDTO;
+import dto.UserDTO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the binary codec with Java serialization on account DTOs,
+ * reporting the time per round trip and the bytes per record.
+ */
+public class CodecBenchmark {
+    private static final int RECORDS = 100_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        AccountDTO[] accounts = new AccountDTO[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            UserDTO user = new UserDTO(i, "Firstname" + (i % 100), "Lastname" + (i % 1000), "SSN" + i);
+            accounts[i] = new AccountDTO(i, user, "GR16011012500000000" + (10_000_000 + i), i * 1.5);
+        }
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println("Round " + round);
+            binary(accounts);
+            javaSerialization(accounts);
+        }
+    }
+
+    private static void binary(AccountDTO[] accounts) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(RECORDS * 128);
+        long start = System.nanoTime();
+        for (AccountDTO account : accounts) {
+            BinaryCodec.write(buffer, account);
+        }
+        int bytes = buffer.position();
+        buffer.flip();
+        double checksum = 0;
+        while (buffer.hasRemaining()) {
+            checksum += BinaryCodec.readAccountDTO(buffer).getBalance();
+        }
+        report("binary", System.nanoTime() - start, bytes, checksum);
+    }
+
+    private static void javaSerialization(AccountDTO[] accounts) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(RECORDS * 256);
+        int bytes = 0;
+        double checksum = 0;
+        for (AccountDTO account : accounts) {
+            out.reset();
+            try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                oos.writeObject(account);
+            }
+            bytes += out.size();
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                checksum += ((AccountDTO) ois.readObject()).getBalance();
+            }
+        }
+        report("java serialization", System.nanoTime() - start, bytes, checksum);
+    }
+
+    private static void report(String name, long nanos, int bytes, double checksum) {
+        System.out.printf("  %-20s %8.1f ns/record %6.1f bytes/record (checksum %.1f)%n",
+                name, (double) nanos / RECORDS, (double) bytes / RECORDS, checksum);
+    }
+}
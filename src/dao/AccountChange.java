@@ -0,0 +1,92 @@
+package dao;
+
+import model.User;
+
+/**
+ * An immutable change of an account, as published by a store or shipped
+ * from a primary store. Changes are numbered by a sequence that follows
+ * the commit order. The change keeps its own copy of the holder, so later
+ * changes to the account's holder do not show through it.
+ */
+public final class AccountChange {
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        /** The account was inserted; the change holds its state. */
+        INSERT,
+        /** The account was changed; the change holds its new state. */
+        UPDATE,
+        /** The account was deleted. */
+        DELETE
+    }
+
+    private final long sequence;
+    private final long commitNanos;
+    private final Type type;
+    private final long id;
+    private final User holder;
+    private final String iban;
+    private final double balance;
+
+    AccountChange(long sequence, long commitNanos, Type type, long id, User holder, String iban, double balance) {
+        this.sequence = sequence;
+        this.commitNanos = commitNanos;
+        this.type = type;
+        this.id = id;
+        this.holder = holder == null ? null : new User(holder);
+        this.iban = iban;
+        this.balance = balance;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the change was committed.
+     *
+     * @return
+     *              the commit time.
+     */
+    public long getCommitNanos() {
+        return commitNanos;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns a copy of the holder at the change.
+     *
+     * @return
+     *              the holder, or {@code null} if the change has none.
+     */
+    public User getHolder() {
+        return holder == null ? null : new User(holder);
+    }
+
+    public String getIban() {
+        return iban;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountChange{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", id=" + id +
+                ", iban='" + iban + '\'' +
+                ", balance=" + balance +
+                '}';
+    }
+}
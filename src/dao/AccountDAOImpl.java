@@ -1,68 +1,222 @@
 package dao;
 
 import model.Account;
+import model.IbanCodec;
+import model.SsnDigest;
+import model.User;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class AccountDAOImpl implements IAccountDAO {
-    private static final ArrayList<Account> accounts = new ArrayList<>();
+    private static final LinkedHashMap<Long, Account> accounts = new LinkedHashMap<>();
+    private static final AccountVersions versions = new AccountVersions();
+    private static final IbanIndex ibanIndex = new IbanIndex();
+    private static final HolderIndex holderIndex = new HolderIndex();
+    private static final AccountPrefixes prefixes = new AccountPrefixes();
+    private static final ChangePublisher changes = new ChangePublisher();
+    private static final IndexBuilder builder = new IndexBuilder(accounts, accounts, AccountDAOImpl::buildIndex, "account-store");
+    private static long sequence;
 
     /**
-     * Inserts a new account into the list.
+     * Inserts a new account into the store. An account whose id or iban
+     * already exists is not inserted.
      *
      * @param account
      *               the account to be inserted.
      * @return
-     *               the inserted account.
+     *               the inserted account, or {@code null} if it is a duplicate.
      */
     @Override
     public Account insert(Account account) {
         if (account == null) return null;
-        accounts.add(account);
+        synchronized (accounts) {
+            if (accounts.containsKey(account.getId()) || ibanIndex.putIfAbsent(account) != null) return null;
+
+            accounts.put(account.getId(), account);
+            index(account);
+            versions.commit(account);
+            publish(AccountChange.Type.INSERT, account);
+        }
         return account;
     }
 
     /**
-     * Updates an existing account of the list.
+     * Inserts a batch of accounts under a single lock acquisition.
+     * Accounts whose id or iban already exists are not inserted. The iban
+     * index is kept at once, as it enforces uniqueness; the holder and
+     * prefix indexes are built in the background, and their queries scan
+     * the store until they are ready.
+     *
+     * @param batch
+     *               the accounts to be inserted.
+     * @return
+     *               the accounts that were rejected as duplicates.
+     */
+    @Override
+    public List<Account> insertAll(List<Account> batch) {
+        List<Account> rejected = new ArrayList<>();
+        synchronized (accounts) {
+            for (Account account : batch) {
+                if (accounts.containsKey(account.getId()) || ibanIndex.putIfAbsent(account) != null) {
+                    rejected.add(account);
+                    continue;
+                }
+                accounts.put(account.getId(), account);
+                versions.commit(account);
+                publish(AccountChange.Type.INSERT, account);
+                builder.defer(account.getId(), SecondaryIndex.HOLDER, SecondaryIndex.PREFIX);
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Updates an existing account of the store. The new account keeps the
+     * batch stamp of the one it replaces.
      *
      * @param id
      *              the id to be updated.
      * @param account
      *              the account to be updated.
      * @return
+     * @throws IllegalStateException
+     *              if the account moves to an id that already exists.
      */
     @Override
     public Account update(long id, Account account) {
-        int positionToUpdate = getIndexById(id);
-        if (positionToUpdate == -1) return null;
+        synchronized (accounts) {
+            Account previous = accounts.get(id);
+            if (previous == null) return null;
+            if (previous.getId() != account.getId() && accounts.containsKey(account.getId())) {
+                throw new IllegalStateException("An account with the id " + account.getId() + " already exists");
+            }
+
+            account.setBatchStamp(previous.getBatchStamp());
+            unindex(previous);
+            if (previous.getId() != account.getId()) {
+                accounts.remove(id);
+                accounts.put(account.getId(), account);
+                index(account);
+                versions.commitMove(id, account);
+                publishDelete(id);
+            } else {
+                accounts.put(account.getId(), account);
+                index(account);
+                versions.commit(account);
+            }
+            publish(previous.getId() == account.getId() ? AccountChange.Type.UPDATE : AccountChange.Type.INSERT, account);
+            return previous;
+        }
+    }
+
+    /**
+     * Changes an account in place, resolving it once. A new iban is claimed
+     * with a single index operation once the changes have been applied, and
+     * only the index keys that changed are rewritten. A patch that leaves
+     * the account as it was commits no version and publishes no change. If
+     * the changes throw, or the iban is taken, the account is restored to
+     * its last committed state.
+     *
+     * @param id
+     *              the id of the account.
+     * @param iban
+     *              the new iban, or {@code null} to keep the current one.
+     * @param changes
+     *              the changes to the other fields of the account.
+     * @return
+     *              the outcome of the patch.
+     */
+    @Override
+    public PatchStatus patch(long id, String iban, Consumer<? super Account> changes) {
+        synchronized (accounts) {
+            Account account = accounts.get(id);
+            if (account == null) return PatchStatus.NOT_FOUND;
+
+            if (iban != null && !IbanCodec.sameIban(iban, account.getIban()) && ibanIndex.get(iban) != null) {
+                return PatchStatus.IBAN_TAKEN;
+            }
+            AccountVersion committed = versions.latest(id);
+            String previousIban = committed == null ? account.getIban() : committed.getIban();
+            User previousHolder = committed == null ? account.getHolder() : committed.holder();
+            double previousBalance = committed == null ? account.getBalance() : committed.getBalance();
+            long previousStamp = account.getBatchStamp();
+            try {
+                if (iban != null) account.setIban(iban);
+                changes.accept(account);
+            } catch (RuntimeException | Error e) {
+                restore(account, previousIban, previousHolder, previousBalance, previousStamp);
+                throw e;
+            }
+            if (!IbanCodec.sameIban(account.getIban(), previousIban)) {
+                if (ibanIndex.putIfAbsent(account.getIban(), account) != null) {
+                    restore(account, previousIban, previousHolder, previousBalance, previousStamp);
+                    return PatchStatus.IBAN_TAKEN;
+                }
+                ibanIndex.remove(previousIban, account);
+            }
+            if (committed != null && AccountVersion.sameHolder(account.getHolder(), previousHolder)
+                    && Objects.equals(account.getIban(), previousIban)
+                    && Double.compare(account.getBalance(), committed.getBalance()) == 0) {
+                return PatchStatus.UNCHANGED;
+            }
+            if (!AccountVersion.sameHolder(account.getHolder(), previousHolder)) {
+                holderIndex.remove(id, previousHolder);
+                holderIndex.add(id, account.getHolder());
+            }
+            prefixes.update(id, previousIban, previousHolder, account.getIban(), account.getHolder());
+            versions.commit(account);
+            publish(AccountChange.Type.UPDATE, account);
+            return PatchStatus.APPLIED;
+        }
+    }
 
-        return accounts.set(positionToUpdate, account);
+    /**
+     * Puts back the fields of an account whose patch failed. The holder is
+     * copied, since the committed one belongs to its version.
+     */
+    private static void restore(Account account, String iban, User holder, double balance, long batchStamp) {
+        account.setIban(iban);
+        if (!AccountVersion.sameHolder(account.getHolder(), holder)) account.setHolder(holder == null ? null : new User(holder));
+        account.setBalance(balance);
+        account.setBatchStamp(batchStamp);
     }
 
     /**
-     * Deletes the account from the list by id.
+     * Deletes the account from the store by id.
      *
      * @param id
      *              the id of the account holder.
      */
     @Override
     public void delete(long id) {
-        accounts.removeIf(account -> account.getId() == id);
+        synchronized (accounts) {
+            Account removed = accounts.remove(id);
+            if (removed == null) return;
+
+            unindex(removed);
+            versions.commitDelete(id);
+            publishDelete(id);
+        }
     }
 
     /**
-     * Gets the account from the list by id.
+     * Gets the account from the store by id.
      * @param id
      *              the id of the account holder.
      * @return
      */
     @Override
     public Account get(long id) {
-        int pos = getIndexById(id);
-        if (pos == -1) return null;
-
-        return accounts.get(pos);
+        synchronized (accounts) {
+            return accounts.get(id);
+        }
     }
 
     /**
@@ -72,7 +226,9 @@ public class AccountDAOImpl implements IAccountDAO {
      */
     @Override
     public List<Account> getAll() {
-        return new ArrayList<>(accounts);
+        synchronized (accounts) {
+            return new ArrayList<>(accounts.values());
+        }
     }
 
     /**
@@ -84,10 +240,9 @@ public class AccountDAOImpl implements IAccountDAO {
      */
     @Override
     public Account get(String iban) {
-        int pos = getIndexByIban(iban);
-        if (pos == -1) return null;
-
-        return accounts.get(pos);
+        synchronized (accounts) {
+            return ibanIndex.get(iban);
+        }
     }
 
     /**
@@ -97,7 +252,15 @@ public class AccountDAOImpl implements IAccountDAO {
      */
     @Override
     public void delete(String iban) {
-        accounts.removeIf(account -> account.getIban().equals(iban));
+        synchronized (accounts) {
+            Account account = ibanIndex.get(iban);
+            if (account == null) return;
+
+            accounts.remove(account.getId(), account);
+            unindex(account);
+            versions.commitDelete(account.getId());
+            publishDelete(account.getId());
+        }
     }
 
     /**
@@ -110,7 +273,9 @@ public class AccountDAOImpl implements IAccountDAO {
      */
     @Override
     public boolean ibanExists(String iban) {
-        return getIndexByIban(iban) != -1;
+        synchronized (accounts) {
+            return ibanIndex.get(iban) != null;
+        }
     }
 
     /**
@@ -123,48 +288,319 @@ public class AccountDAOImpl implements IAccountDAO {
      */
     @Override
     public boolean userIdExists(long id) {
-        return getIndexById(id) != -1;
+        synchronized (accounts) {
+            return accounts.containsKey(id);
+        }
     }
 
     /**
-     * Returns the index of the account with the specified ID in the accounts list.
+     * Gets all the accounts of a holder.
+     *
+     * @param holderId
+     *              the id of the holder.
+     * @return
+     *              the accounts of the holder.
+     */
+    @Override
+    public List<Account> getByHolderId(long holderId) {
+        if (!builder.isReady(SecondaryIndex.HOLDER)) return scan(all -> IndexScans.byHolderId(all, holderId));
+
+        return resolve(holderIndex.byHolderId(holderId), account -> true);
+    }
+
+    /**
+     * Gets all the accounts whose holder has the given ssn.
+     *
+     * @param ssn
+     *              the ssn of the holder.
+     * @return
+     *              the accounts of the holder.
+     */
+    @Override
+    public List<Account> getBySsn(String ssn) {
+        if (ssn == null) return new ArrayList<>();
+        if (!builder.isReady(SecondaryIndex.HOLDER)) return scan(all -> IndexScans.bySsn(all, ssn));
+
+        return resolve(holderIndex.bySsnHigh(SsnDigest.high(ssn)), account -> account.isSsnValid(ssn));
+    }
+
+    /**
+     * Gets all the accounts whose holder has the given last name.
+     *
+     * @param lastname
+     *              the last name of the holder.
+     * @return
+     *              the accounts of the holders.
+     */
+    @Override
+    public List<Account> getByLastname(String lastname) {
+        if (!builder.isReady(SecondaryIndex.HOLDER)) return scan(all -> IndexScans.byLastname(all, lastname));
+
+        return resolve(holderIndex.byLastname(lastname), account -> true);
+    }
+
+    /**
+     * Searches the accounts whose iban starts with a prefix.
+     *
+     * @param prefix
+     *              the start of the iban, in any spacing and case.
+     * @param limit
+     *              the maximum number of accounts.
+     * @return
+     *              the first accounts in iban order.
+     */
+    @Override
+    public List<Account> searchByIban(String prefix, int limit) {
+        if (!builder.isReady(SecondaryIndex.PREFIX)) return scan(all -> IndexScans.byIbanPrefix(all, prefix, limit));
+
+        return resolve(prefixes.byIbanPrefix(prefix, limit), account -> true);
+    }
+
+    /**
+     * Searches the accounts whose holder's last name starts with a prefix.
+     *
+     * @param prefix
+     *              the start of the last name, in any case.
+     * @param limit
+     *              the maximum number of accounts.
+     * @return
+     *              the first accounts in last name order.
+     */
+    @Override
+    public List<Account> searchByLastname(String prefix, int limit) {
+        if (!builder.isReady(SecondaryIndex.PREFIX)) return scan(all -> IndexScans.byLastnamePrefix(all, prefix, limit));
+
+        return resolve(prefixes.byLastnamePrefix(prefix, limit), account -> true);
+    }
+
+    /**
+     * Searches the accounts whose holder's first name starts with a prefix.
+     *
+     * @param prefix
+     *              the start of the first name, in any case.
+     * @param limit
+     *              the maximum number of accounts.
+     * @return
+     *              the first accounts in first name order.
+     */
+    @Override
+    public List<Account> searchByFirstname(String prefix, int limit) {
+        if (!builder.isReady(SecondaryIndex.PREFIX)) return scan(all -> IndexScans.byFirstnamePrefix(all, prefix, limit));
+
+        return resolve(prefixes.byFirstnamePrefix(prefix, limit), account -> true);
+    }
+
+    /**
+     * Tells if a secondary index holds every account. The iban index always
+     * does; the others may still be building after a bulk insert.
+     *
+     * @param index
+     *              the index.
+     * @return
+     *              true if the index is ready.
+     */
+    @Override
+    public boolean isIndexReady(SecondaryIndex index) {
+        return builder.isReady(index);
+    }
+
+    /**
+     * Gets the balance of an account from its latest committed version,
+     * without taking the store lock.
      *
      * @param id
-     *              the ID to search for
+     *              the id of the account.
      * @return
-     *              the index of the account with the specified ID, or {@code -1} if not found
+     *              the balance, or {@link Double#NaN} if the account does not exist.
      */
-    private int getIndexById(long id) {
-        int pos = -1;
+    @Override
+    public double balanceOf(long id) {
+        AccountVersion latest = versions.latest(id);
+        return latest == null ? Double.NaN : latest.getBalance();
+    }
 
-        for (int i = 0; i < accounts.size(); i++) {
-            if (accounts.get(i).getId() == id) {
-                pos = i;
-                break;
-            }
-        }
-        return pos;
+    /**
+     * Gets the latest committed version of an account, without taking the
+     * store lock.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the version, or {@code null} if the account does not exist.
+     */
+    @Override
+    public AccountVersion latestVersion(long id) {
+        return versions.latest(id);
     }
 
     /**
-     * Returns the index of the account with the specified iban in the accounts list.
+     * Passes the id and balance of every account to an action, reading the
+     * latest committed versions without taking the store lock.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    @Override
+    public void forEachBalance(BalanceConsumer action) {
+        versions.forEachLatest(version -> action.accept(version.getId(), version.getBalance()));
+    }
+
+    /**
+     * Passes the latest committed version of every account to an action,
+     * without taking the store lock. The versions are immutable.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    @Override
+    public void forEachProjection(Consumer<? super AccountProjection> action) {
+        versions.forEachLatest(action);
+    }
+
+    /**
+     * Opens a consistent snapshot of all the accounts.
+     * Writers keep going while the snapshot is open.
      *
-     * @param iban
-     *                 the iban to be searched.
      * @return
-     *                 the index of the account with the specified iban, or {@code -1} if not found
+     *              the snapshot, to be closed after use.
+     */
+    @Override
+    public AccountSnapshot openSnapshot() {
+        return versions.open();
+    }
+
+    /**
+     * Returns the publisher of the changes committed to the store.
+     *
+     * @return
+     *              the change publisher.
+     */
+    @Override
+    public ChangePublisher changes() {
+        return changes;
+    }
+
+    /**
+     * Removes an account from the indexes, under both its current iban
+     * and the iban it was last committed with.
+     *
+     * @param account
+     *                 the account to be removed.
      */
-    private int getIndexByIban(String iban) {
-        int pos = -1;
+    private void unindex(Account account) {
+        AccountVersion committed = versions.latest(account.getId());
+        User holder = committed == null ? account.getHolder() : committed.holder();
+        if (committed != null) {
+            ibanIndex.remove(committed.getIban(), account);
+            prefixes.remove(account.getId(), committed.getIban(), holder);
+        }
+        ibanIndex.remove(account.getIban(), account);
+        prefixes.remove(account.getId(), account.getIban(), holder);
+        holderIndex.remove(account.getId(), holder);
+    }
 
-        for (int i = 0; i < accounts.size(); i++) {
-            if (accounts.get(i).getIban().equals(iban)) {
-                pos = i;
+    /**
+     * Adds an account to the iban, holder and prefix indexes.
+     *
+     * @param account
+     *                 the account to be indexed.
+     */
+    private void index(Account account) {
+        ibanIndex.put(account);
+        holderIndex.add(account.getId(), account.getHolder());
+        prefixes.add(account.getId(), account.getIban(), account.getHolder());
+    }
+
+    /**
+     * Adds a chunk of accounts to a secondary index, for the index builder.
+     *
+     * @param index
+     *                 the index.
+     * @param chunk
+     *                 the accounts to be indexed.
+     */
+    private static void buildIndex(SecondaryIndex index, List<Account> chunk) {
+        switch (index) {
+            case IBAN:
+                chunk.forEach(ibanIndex::put);
+                break;
+            case HOLDER: {
+                long[] ids = new long[chunk.size()];
+                List<User> holders = new ArrayList<>(chunk.size());
+                for (Account account : chunk) {
+                    ids[holders.size()] = account.getId();
+                    holders.add(account.getHolder());
+                }
+                holderIndex.addAll(ids, holders);
                 break;
             }
+            case PREFIX:
+                chunk.forEach(account -> prefixes.add(account.getId(), account.getIban(), account.getHolder()));
+                break;
         }
-        return pos;
     }
 
+    /**
+     * Runs a query over all the accounts under the store lock, while the
+     * index that would answer it is being built.
+     *
+     * @param query
+     *                 the query.
+     * @return
+     *                 the accounts found.
+     */
+    private List<Account> scan(Function<Collection<Account>, List<Account>> query) {
+        synchronized (accounts) {
+            return query.apply(accounts.values());
+        }
+    }
+
+    /**
+     * Publishes the new state of an account, if anyone subscribed.
+     * Must be called under the store lock, right after the commit.
+     *
+     * @param type
+     *                 the type of change.
+     * @param account
+     *                 the account.
+     */
+    private void publish(AccountChange.Type type, Account account) {
+        if (!changes.hasSubscribers()) return;
+
+        changes.publish(new AccountChange(++sequence, System.nanoTime(), type, account.getId(),
+                account.getHolder(), account.getIban(), account.getBalance()));
+    }
+
+    /**
+     * Publishes the deletion of an account, if anyone subscribed.
+     *
+     * @param id
+     *                 the id of the account.
+     */
+    private void publishDelete(long id) {
+        if (!changes.hasSubscribers()) return;
+
+        changes.publish(new AccountChange(++sequence, System.nanoTime(), AccountChange.Type.DELETE, id, null, null, 0.0));
+    }
 
+    /**
+     * Resolves a posting list to the accounts, under the store lock.
+     *
+     * @param ids
+     *                 the account ids.
+     * @param filter
+     *                 the accounts to keep.
+     * @return
+     *                 the accounts, in id order.
+     */
+    private List<Account> resolve(long[] ids, Predicate<Account> filter) {
+        List<Account> result = new ArrayList<>(ids.length);
+        synchronized (accounts) {
+            for (long id : ids) {
+                Account account = accounts.get(id);
+                if (account != null && filter.test(account)) result.add(account);
+            }
+        }
+        return result;
+    }
 }
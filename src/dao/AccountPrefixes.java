@@ -0,0 +1,106 @@
+package dao;
+
+import model.IbanCodec;
+import model.User;
+
+import java.util.Objects;
+
+/**
+ * Prefix indexes over the ibans and the holder names of the accounts,
+ * for typeahead searches. Changes must be serialized by the caller.
+ */
+final class AccountPrefixes {
+    private final PrefixIndex ibans = new PrefixIndex();
+    private final PrefixIndex lastnames = new PrefixIndex();
+    private final PrefixIndex firstnames = new PrefixIndex();
+
+    /**
+     * Indexes an account under its iban and the names of its holder.
+     *
+     * @param accountId
+     *              the id of the account.
+     * @param iban
+     *              the iban of the account.
+     * @param holder
+     *              the holder of the account.
+     */
+    void add(long accountId, String iban, User holder) {
+        ibans.add(IbanCodec.normalize(iban), accountId);
+        if (holder == null) return;
+
+        lastnames.add(holder.getLastname(), accountId);
+        firstnames.add(holder.getFirstname(), accountId);
+    }
+
+    /**
+     * Removes an account from the keys it was indexed under.
+     *
+     * @param accountId
+     *              the id of the account.
+     * @param iban
+     *              the iban the account was indexed under.
+     * @param holder
+     *              the holder the account was indexed under.
+     */
+    void remove(long accountId, String iban, User holder) {
+        ibans.remove(IbanCodec.normalize(iban), accountId);
+        if (holder == null) return;
+
+        lastnames.remove(holder.getLastname(), accountId);
+        firstnames.remove(holder.getFirstname(), accountId);
+    }
+
+    /**
+     * Moves an account from its old keys to its new ones, touching only
+     * the keys that differ.
+     *
+     * @param accountId
+     *              the id of the account.
+     * @param oldIban
+     *              the iban the account was indexed under.
+     * @param oldHolder
+     *              the holder the account was indexed under.
+     * @param newIban
+     *              the new iban of the account.
+     * @param newHolder
+     *              the new holder of the account.
+     */
+    void update(long accountId, String oldIban, User oldHolder, String newIban, User newHolder) {
+        if (!IbanCodec.sameIban(oldIban, newIban)) {
+            ibans.remove(IbanCodec.normalize(oldIban), accountId);
+            ibans.add(IbanCodec.normalize(newIban), accountId);
+        }
+        move(lastnames, accountId, oldHolder == null ? null : oldHolder.getLastname(),
+                newHolder == null ? null : newHolder.getLastname());
+        move(firstnames, accountId, oldHolder == null ? null : oldHolder.getFirstname(),
+                newHolder == null ? null : newHolder.getFirstname());
+    }
+
+    /**
+     * Removes all the keys.
+     */
+    void clear() {
+        ibans.clear();
+        lastnames.clear();
+        firstnames.clear();
+    }
+
+    long[] byIbanPrefix(String prefix, int limit) {
+        return ibans.search(IbanCodec.normalize(prefix), limit);
+    }
+
+    long[] byLastnamePrefix(String prefix, int limit) {
+        return lastnames.search(prefix, limit);
+    }
+
+    long[] byFirstnamePrefix(String prefix, int limit) {
+        return firstnames.search(prefix, limit);
+    }
+
+    private static void move(PrefixIndex index, long accountId, String oldKey, String newKey) {
+        if (Objects.equals(oldKey, newKey)) return;
+
+        index.remove(oldKey, accountId);
+        index.add(newKey, accountId);
+    }
+}
@@ -0,0 +1,24 @@
+package dao;
+
+/**
+ * Read-only projection of a stored account, for reads that need only a few
+ * fields. Projections are read from the stored data in place: depending on
+ * the store, one may be an immutable committed version or a flyweight that
+ * is reused for the next account, so it is valid only during the callback
+ * that receives it.
+ */
+public interface AccountProjection {
+    long getId();
+
+    double getBalance();
+
+    CharSequence getIban();
+
+    /**
+     * Returns the id of the holder.
+     *
+     * @return
+     *              the holder id, or 0 if the account has no holder.
+     */
+    long getHolderId();
+}
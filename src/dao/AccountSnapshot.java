@@ -0,0 +1,131 @@
+package dao;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A consistent, read-only view of all accounts at a point in time.
+ * <p>
+ * Reading a snapshot never blocks writers, and writers never change what an
+ * open snapshot sees. Snapshots must be closed so the versions they pin can
+ * be reclaimed.
+ */
+public final class AccountSnapshot implements AutoCloseable {
+    private static final long[] NO_IDS = new long[0];
+    private static final double[] NO_AMOUNTS = new double[0];
+
+    private final AccountVersions versions;
+    private final long version;
+    private long[] adjustedIds = NO_IDS;
+    private double[] adjustments = NO_AMOUNTS;
+    private volatile boolean closed;
+
+    AccountSnapshot(AccountVersions versions, long version) {
+        this.versions = versions;
+        this.version = version;
+    }
+
+    /**
+     * Returns the commit version this snapshot is pinned at.
+     *
+     * @return
+     *              the snapshot version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets an account as it was when the snapshot was opened.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the account version, or {@code null} if the account did not exist.
+     */
+    public AccountVersion get(long id) {
+        checkOpen();
+        return adjusted(versions.visible(id, version));
+    }
+
+    /**
+     * Performs the given action for every account in the snapshot.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    public void forEach(Consumer<? super AccountVersion> action) {
+        checkOpen();
+        if (adjustedIds.length == 0) {
+            versions.forEachVisible(version, action);
+            return;
+        }
+        versions.forEachVisible(version, account -> action.accept(adjusted(account)));
+    }
+
+    /**
+     * Adds amounts held outside the store to the balances the snapshot
+     * reports, such as the deposits an account service has not folded into
+     * the store yet. Called before the snapshot is handed out.
+     *
+     * @param ids
+     *              the sorted ids of the accounts.
+     * @param amounts
+     *              the amount to add to each account, in the same order.
+     */
+    public void addToBalances(long[] ids, double[] amounts) {
+        checkOpen();
+        if (ids.length != amounts.length) throw new IllegalArgumentException("Expected one amount per id");
+
+        adjustedIds = ids.clone();
+        adjustments = amounts.clone();
+    }
+
+    /**
+     * Counts the accounts in the snapshot.
+     *
+     * @return
+     *              the number of accounts.
+     */
+    public int size() {
+        int[] count = new int[1];
+        forEach(account -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Sums the balances of all the accounts in the snapshot.
+     *
+     * @return
+     *              the total balance.
+     */
+    public double totalBalance() {
+        double[] total = new double[1];
+        forEach(account -> total[0] += account.getBalance());
+        return total[0];
+    }
+
+    /**
+     * Closes the snapshot and releases the versions it pins.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        versions.release(version);
+    }
+
+    private AccountVersion adjusted(AccountVersion account) {
+        if (account == null || adjustedIds.length == 0) return account;
+
+        int i = Arrays.binarySearch(adjustedIds, account.getId());
+        if (i < 0) return account;
+
+        return new AccountVersion(account.getId(), account.holder(), account.getIban(),
+                account.getBalance() + adjustments[i], account.getVersion(), false, null);
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("Snapshot " + version + " is closed");
+    }
+}
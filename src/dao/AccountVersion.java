@@ -0,0 +1,121 @@
+package dao;
+
+import model.User;
+
+import java.util.Objects;
+
+/**
+ * An immutable, committed version of an account as seen by snapshot readers.
+ * Versions of the same account form a chain from the newest to the oldest one.
+ */
+public final class AccountVersion implements AccountProjection {
+    private final long id;
+    private final User holder;
+    private final String iban;
+    private final double balance;
+    private final long version;
+    private final boolean deleted;
+    private volatile AccountVersion previous;
+
+    AccountVersion(long id, User holder, String iban, double balance,
+                   long version, boolean deleted, AccountVersion previous) {
+        this.id = id;
+        this.holder = holder;
+        this.iban = iban;
+        this.balance = balance;
+        this.version = version;
+        this.deleted = deleted;
+        this.previous = previous;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns a copy of the holder, so the version itself stays unchanged.
+     *
+     * @return
+     *              the holder, or {@code null} if the account had none.
+     */
+    public User getHolder() {
+        return holder == null ? null : new User(holder);
+    }
+
+    /**
+     * Returns the holder of the version itself, which must not be changed.
+     */
+    User holder() {
+        return holder;
+    }
+
+    @Override
+    public String getIban() {
+        return iban;
+    }
+
+    @Override
+    public double getBalance() {
+        return balance;
+    }
+
+    @Override
+    public long getHolderId() {
+        return holder == null ? 0L : holder.getId();
+    }
+
+    /**
+     * Returns the commit version that produced this account state.
+     *
+     * @return
+     *              the commit version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    AccountVersion getPrevious() {
+        return previous;
+    }
+
+    void unlinkPrevious() {
+        previous = null;
+    }
+
+    /**
+     * Tells if two holders have the same values.
+     *
+     * @param a
+     *              a holder, or {@code null}.
+     * @param b
+     *              another holder, or {@code null}.
+     * @return
+     *              true if both are null or have equal values.
+     */
+    static boolean sameHolder(User a, User b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+
+        return a.getId() == b.getId()
+                && Objects.equals(a.getFirstname(), b.getFirstname())
+                && Objects.equals(a.getLastname(), b.getLastname())
+                && a.hasSsn() == b.hasSsn()
+                && a.getSsnHigh() == b.getSsnHigh()
+                && a.getSsnLow() == b.getSsnLow();
+    }
+
+    @Override
+    public String toString() {
+        return "AccountVersion{" +
+                "id=" + id +
+                ", iban='" + iban + '\'' +
+                ", balance=" + balance +
+                ", version=" + version +
+                '}';
+    }
+}
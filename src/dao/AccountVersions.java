@@ -0,0 +1,235 @@
+package dao;
+
+import model.Account;
+import model.User;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Multi-version store of committed account states.
+ * <p>
+ * Writers must be serialized by the caller. A commit installs the new version
+ * first and publishes the new clock value afterwards, so a snapshot that reads
+ * the clock sees every version up to it. Old versions are unlinked as soon as
+ * no open snapshot can reach them.
+ */
+final class AccountVersions {
+    private final ConcurrentHashMap<Long, AccountVersion> heads = new ConcurrentHashMap<>();
+    private final Set<Long> retained = ConcurrentHashMap.newKeySet();
+    private final TreeMap<Long, Integer> pins = new TreeMap<>();
+    private volatile long clock;
+
+    /**
+     * Commits the current state of an account as a new version. The version
+     * keeps its own copy of the holder, shared with the previous version
+     * while the holder is unchanged, so later changes to the account's
+     * holder do not reach open snapshots.
+     *
+     * @param account
+     *              the account to be committed.
+     */
+    void commit(Account account) {
+        long version = clock + 1;
+        install(version(account, version));
+        publish(version, account.getId());
+    }
+
+    /**
+     * Commits the deletion of an account as a tombstone version.
+     *
+     * @param id
+     *              the id of the deleted account.
+     */
+    void commitDelete(long id) {
+        AccountVersion tombstone = tombstone(id, clock + 1);
+        if (tombstone == null) return;
+
+        install(tombstone);
+        publish(tombstone.getVersion(), id);
+    }
+
+    /**
+     * Commits an account that moved from another id in a single version
+     * step, so every snapshot sees either the old account or the new one.
+     *
+     * @param oldId
+     *              the id the account had.
+     * @param account
+     *              the account under its new id.
+     */
+    void commitMove(long oldId, Account account) {
+        long version = clock + 1;
+        AccountVersion tombstone = tombstone(oldId, version);
+        if (tombstone != null) install(tombstone);
+        install(version(account, version));
+        publish(version, account.getId());
+        prune(oldId, horizon());
+    }
+
+    /**
+     * Opens a snapshot pinned at the latest committed version.
+     *
+     * @return
+     *              the snapshot.
+     */
+    AccountSnapshot open() {
+        synchronized (pins) {
+            long version = clock;
+            pins.merge(version, 1, Integer::sum);
+            return new AccountSnapshot(this, version);
+        }
+    }
+
+    /**
+     * Releases a snapshot and reclaims the versions only it could reach.
+     *
+     * @param version
+     *              the version the snapshot was pinned at.
+     */
+    void release(long version) {
+        synchronized (pins) {
+            pins.computeIfPresent(version, (v, count) -> count == 1 ? null : count - 1);
+        }
+
+        long horizon = horizon();
+        for (Long id : retained) {
+            prune(id, horizon);
+        }
+    }
+
+    /**
+     * Gets the version of an account visible at the given snapshot version.
+     *
+     * @param id
+     *              the id of the account.
+     * @param version
+     *              the snapshot version.
+     * @return
+     *              the visible version, or {@code null} if the account did not exist.
+     */
+    AccountVersion visible(long id, long version) {
+        return visible(heads.get(id), version);
+    }
+
+    /**
+     * Gets the latest committed version of an account.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the latest version, or {@code null} if the account does not exist.
+     */
+    AccountVersion latest(long id) {
+        AccountVersion head = heads.get(id);
+        return head == null || head.isDeleted() ? null : head;
+    }
+
+    /**
+     * Performs the given action for every account visible at the given snapshot version.
+     *
+     * @param version
+     *              the snapshot version.
+     * @param action
+     *              the action to be performed.
+     */
+    void forEachVisible(long version, Consumer<? super AccountVersion> action) {
+        for (AccountVersion head : heads.values()) {
+            AccountVersion visible = visible(head, version);
+            if (visible != null) action.accept(visible);
+        }
+    }
+
+    /**
+     * Performs the given action for the latest committed version of every
+     * account, without pinning a snapshot. Commits made meanwhile may or may
+     * not be seen, but each version seen is a whole committed state.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    void forEachLatest(Consumer<? super AccountVersion> action) {
+        for (AccountVersion head : heads.values()) {
+            if (!head.isDeleted()) action.accept(head);
+        }
+    }
+
+    private static AccountVersion visible(AccountVersion head, long version) {
+        AccountVersion v = head;
+        while (v != null && v.getVersion() > version) {
+            v = v.getPrevious();
+        }
+        return v == null || v.isDeleted() ? null : v;
+    }
+
+    private AccountVersion version(Account account, long version) {
+        AccountVersion head = heads.get(account.getId());
+        User holder = account.getHolder();
+        if (head != null && AccountVersion.sameHolder(head.holder(), holder)) {
+            holder = head.holder();
+        } else if (holder != null) {
+            holder = new User(holder);
+        }
+        return new AccountVersion(account.getId(), holder, account.getIban(), account.getBalance(), version, false, head);
+    }
+
+    private AccountVersion tombstone(long id, long version) {
+        AccountVersion head = heads.get(id);
+        if (head == null || head.isDeleted()) return null;
+
+        return new AccountVersion(id, null, null, 0.0, version, true, head);
+    }
+
+    private void install(AccountVersion version) {
+        heads.put(version.getId(), version);
+    }
+
+    /**
+     * Makes the versions installed at a clock value visible to new snapshots.
+     */
+    private void publish(long version, long id) {
+        clock = version;
+        prune(id, horizon());
+    }
+
+    /**
+     * Unlinks the versions of an account that are older than the newest
+     * version visible at the horizon.
+     */
+    private synchronized void prune(long id, long horizon) {
+        AccountVersion head = heads.get(id);
+        if (head == null) {
+            retained.remove(id);
+            return;
+        }
+
+        AccountVersion v = head;
+        while (v != null && v.getVersion() > horizon) {
+            v = v.getPrevious();
+        }
+        if (v != null) v.unlinkPrevious();
+
+        if (head.isDeleted() && head.getVersion() <= horizon) {
+            heads.remove(id, head);
+            retained.remove(id);
+        } else if (head.getPrevious() != null || head.isDeleted()) {
+            retained.add(id);
+        } else {
+            retained.remove(id);
+        }
+    }
+
+    /**
+     * Returns the oldest version still pinned by an open snapshot,
+     * or the latest version if there are no snapshots.
+     */
+    private long horizon() {
+        synchronized (pins) {
+            Map.Entry<Long, Integer> oldest = pins.firstEntry();
+            return oldest == null ? clock : oldest.getKey();
+        }
+    }
+}
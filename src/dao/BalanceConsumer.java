@@ -0,0 +1,10 @@
+package dao;
+
+/**
+ * Receives the balance of an account as primitives, so that bulk balance
+ * reads neither box nor build account objects.
+ */
+@FunctionalInterface
+public interface BalanceConsumer {
+    void accept(long id, double balance);
+}
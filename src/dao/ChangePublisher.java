@@ -0,0 +1,237 @@
+package dao;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the changes committed to a store, in commit order.
+ * <p>
+ * Every subscription has its own bounded buffer and {@link OverflowPolicy},
+ * and is drained on an executor at the pace the subscriber requests, so
+ * writers only append to the buffers and never wait. With no subscribers
+ * the store checks {@link #hasSubscribers()}, a single volatile read, and
+ * does not even create the change.
+ */
+public final class ChangePublisher implements Flow.Publisher<AccountChange> {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final ChangeSubscription[] NONE = new ChangeSubscription[0];
+
+    private final Executor executor;
+    private volatile ChangeSubscription[] subscriptions = NONE;
+    private boolean closed;
+
+    ChangePublisher() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    ChangePublisher(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes with a buffer of 1024 changes that fails when full.
+     *
+     * @param subscriber
+     *              the subscriber.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super AccountChange> subscriber) {
+        subscribe(subscriber, DEFAULT_CAPACITY, OverflowPolicy.ERROR);
+    }
+
+    /**
+     * Subscribes to the changes committed from now on.
+     *
+     * @param subscriber
+     *              the subscriber.
+     * @param capacity
+     *              the number of changes buffered for the subscriber.
+     * @param policy
+     *              what to do when the buffer is full.
+     */
+    public void subscribe(Flow.Subscriber<? super AccountChange> subscriber, int capacity, OverflowPolicy policy) {
+        if (subscriber == null || policy == null) throw new NullPointerException();
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+
+        ChangeSubscription subscription = new ChangeSubscription(subscriber, capacity, policy);
+        subscriber.onSubscribe(subscription);
+        synchronized (this) {
+            if (closed) {
+                subscription.complete();
+                return;
+            }
+            ChangeSubscription[] current = subscriptions;
+            ChangeSubscription[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = subscription;
+            subscriptions = next;
+        }
+    }
+
+    /**
+     * Checks if any subscriber would receive a change.
+     *
+     * @return
+     *              true if there are subscribers, false otherwise.
+     */
+    public boolean hasSubscribers() {
+        return subscriptions.length > 0;
+    }
+
+    /**
+     * Hands a change to every subscription. Must be called in commit order.
+     *
+     * @param change
+     *              the change.
+     */
+    void publish(AccountChange change) {
+        for (ChangeSubscription subscription : subscriptions) {
+            subscription.offer(change);
+        }
+    }
+
+    /**
+     * Completes every subscription once its buffer is delivered.
+     */
+    synchronized void close() {
+        closed = true;
+        for (ChangeSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+        subscriptions = NONE;
+    }
+
+    private synchronized void remove(ChangeSubscription subscription) {
+        ChangeSubscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != subscription) continue;
+
+            ChangeSubscription[] next = new ChangeSubscription[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, next.length - i);
+            subscriptions = next;
+            return;
+        }
+    }
+
+    /**
+     * A subscription with its buffer. The buffer and the demand are guarded
+     * by the subscription; delivery runs in a single drain loop at a time.
+     */
+    private final class ChangeSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super AccountChange> subscriber;
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final ArrayDeque<AccountChange> buffer = new ArrayDeque<>();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private long demand;
+        private boolean cancelled;
+        private boolean completed;
+        private Throwable error;
+
+        ChangeSubscription(Flow.Subscriber<? super AccountChange> subscriber, int capacity, OverflowPolicy policy) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+
+        void offer(AccountChange change) {
+            synchronized (this) {
+                if (cancelled || completed || error != null) return;
+
+                if (buffer.size() < capacity) {
+                    buffer.add(change);
+                    if (demand == 0) return;
+                } else if (policy == OverflowPolicy.DROP_OLDEST) {
+                    buffer.poll();
+                    buffer.add(change);
+                    return;
+                } else if (policy == OverflowPolicy.DROP_LATEST) {
+                    return;
+                } else {
+                    error = new IllegalStateException("Subscriber fell more than " + capacity + " changes behind");
+                }
+            }
+            drain();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    if (error == null) error = new IllegalArgumentException("Requested " + n + " changes");
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                buffer.clear();
+            }
+            remove(this);
+        }
+
+        private void drain() {
+            if (pendingDrains.getAndIncrement() == 0) executor.execute(this::deliver);
+        }
+
+        private void deliver() {
+            int missed = 1;
+            while (true) {
+                while (true) {
+                    AccountChange next;
+                    Throwable failure = null;
+                    boolean done = false;
+                    synchronized (this) {
+                        if (cancelled) break;
+                        if (demand > 0 && !buffer.isEmpty()) {
+                            next = buffer.poll();
+                            demand--;
+                        } else if (error != null || (completed && buffer.isEmpty())) {
+                            next = null;
+                            failure = error;
+                            done = true;
+                            cancelled = true;
+                            buffer.clear();
+                        } else {
+                            break;
+                        }
+                    }
+
+                    if (done) {
+                        if (failure != null) {
+                            remove(this);
+                            subscriber.onError(failure);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(next);
+                    } catch (Throwable t) {
+                        cancel();
+                        break;
+                    }
+                }
+                missed = pendingDrains.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dao;
+
+import model.User;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary indexes from holder attributes to account ids.
+ * <p>
+ * Each key maps to a posting list. Changes are appended to a log of the
+ * list and merged into its sorted ids when the key is read or the log
+ * outgrows them, so adding or removing an account costs amortized constant
+ * time even for a key shared by many accounts. A read returns the merged
+ * ids, which are never changed afterwards, so callers can use them without
+ * locking. Holders are indexed by id, by the high half of the ssn digest
+ * and by last name; ssn postings must be confirmed against the full digest.
+ * Changes must be serialized by the caller.
+ */
+final class HolderIndex {
+    static final long[] EMPTY = new long[0];
+
+    private final ConcurrentHashMap<Long, Postings> byHolderId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Postings> bySsn = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Postings> byLastname = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes an account under its holder.
+     *
+     * @param accountId
+     *              the id of the account.
+     * @param holder
+     *              the holder of the account.
+     */
+    void add(long accountId, User holder) {
+        if (holder == null) return;
+
+        byHolderId.computeIfAbsent(holder.getId(), key -> new Postings()).change(accountId, true);
+        if (holder.hasSsn()) bySsn.computeIfAbsent(holder.getSsnHigh(), key -> new Postings()).change(accountId, true);
+        if (holder.getLastname() != null) {
+            byLastname.computeIfAbsent(holder.getLastname(), key -> new Postings()).change(accountId, true);
+        }
+    }
+
+    /**
+     * Indexes a batch of accounts.
+     *
+     * @param accountIds
+     *              the ids of the accounts.
+     * @param holders
+     *              the holders of the accounts, in the same order.
+     */
+    void addAll(long[] accountIds, List<User> holders) {
+        for (int i = 0; i < accountIds.length; i++) {
+            add(accountIds[i], holders.get(i));
+        }
+    }
+
+    /**
+     * Removes an account from the postings of its holder.
+     *
+     * @param accountId
+     *              the id of the account.
+     * @param holder
+     *              the holder the account was indexed under.
+     */
+    void remove(long accountId, User holder) {
+        if (holder == null) return;
+
+        byHolderId.computeIfPresent(holder.getId(), (key, postings) -> postings.change(accountId, false));
+        if (holder.hasSsn()) bySsn.computeIfPresent(holder.getSsnHigh(), (key, postings) -> postings.change(accountId, false));
+        if (holder.getLastname() != null) {
+            byLastname.computeIfPresent(holder.getLastname(), (key, postings) -> postings.change(accountId, false));
+        }
+    }
+
+    /**
+     * Removes all the postings.
+     */
+    void clear() {
+        byHolderId.clear();
+        bySsn.clear();
+        byLastname.clear();
+    }
+
+    long[] byHolderId(long holderId) {
+        return ids(byHolderId.get(holderId));
+    }
+
+    long[] bySsnHigh(long ssnHigh) {
+        return ids(bySsn.get(ssnHigh));
+    }
+
+    long[] byLastname(String lastname) {
+        return lastname == null ? EMPTY : ids(byLastname.get(lastname));
+    }
+
+    private static long[] ids(Postings postings) {
+        return postings == null ? EMPTY : postings.ids();
+    }
+}
@@ -3,21 +3,32 @@ package dao;
 import model.Account;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Defines the operations that can be performed on accounts.
  */
 public interface IAccountDAO {
     /**
-     * Inserts an account.
+     * Inserts an account, unless its id or iban already exists.
      *
      * @param account
      *               the account to be inserted.
      * @return
-     *               the inserted account.
+     *               the inserted account, or {@code null} if it is a duplicate.
      */
     Account insert(Account account);
 
+    /**
+     * Inserts a batch of accounts, skipping those whose id or iban already exists.
+     *
+     * @param batch
+     *               the accounts to be inserted.
+     * @return
+     *               the accounts that were rejected as duplicates.
+     */
+    List<Account> insertAll(List<Account> batch);
+
     /**
      * Updates an account
      *
@@ -27,9 +38,26 @@ public interface IAccountDAO {
      *              the account to be updated.
      * @return
      *              the updated account.
+     * @throws IllegalStateException
+     *              if the account moves to an id that already exists.
      */
     Account update(long id, Account account);
 
+    /**
+     * Changes an account in place. The changes must not touch the id or the iban,
+     * and must replace the holder rather than modify it.
+     *
+     * @param id
+     *              the id of the account.
+     * @param iban
+     *              the new iban, or {@code null} to keep the current one.
+     * @param changes
+     *              the changes to the other fields of the account.
+     * @return
+     *              the outcome of the patch.
+     */
+    PatchStatus patch(long id, String iban, Consumer<? super Account> changes);
+
     /**
      * Deletes an account by id.
      *
@@ -93,4 +121,135 @@ public interface IAccountDAO {
      *              true if id exists, false otherwise.
      */
     boolean userIdExists(long id);
+
+    /**
+     * Gets all the accounts of a holder.
+     *
+     * @param holderId
+     *              the id of the holder.
+     * @return
+     *              the accounts of the holder.
+     */
+    List<Account> getByHolderId(long holderId);
+
+    /**
+     * Gets all the accounts whose holder has the given ssn.
+     *
+     * @param ssn
+     *              the ssn of the holder.
+     * @return
+     *              the accounts of the holder.
+     */
+    List<Account> getBySsn(String ssn);
+
+    /**
+     * Gets all the accounts whose holder has the given last name.
+     *
+     * @param lastname
+     *              the last name of the holder.
+     * @return
+     *              the accounts of the holders.
+     */
+    List<Account> getByLastname(String lastname);
+
+    /**
+     * Searches the accounts whose iban starts with a prefix.
+     *
+     * @param prefix
+     *              the start of the iban, in any spacing and case.
+     * @param limit
+     *              the maximum number of accounts.
+     * @return
+     *              the first accounts in iban order.
+     */
+    List<Account> searchByIban(String prefix, int limit);
+
+    /**
+     * Searches the accounts whose holder's last name starts with a prefix.
+     *
+     * @param prefix
+     *              the start of the last name, in any case.
+     * @param limit
+     *              the maximum number of accounts.
+     * @return
+     *              the first accounts in last name order.
+     */
+    List<Account> searchByLastname(String prefix, int limit);
+
+    /**
+     * Searches the accounts whose holder's first name starts with a prefix.
+     *
+     * @param prefix
+     *              the start of the first name, in any case.
+     * @param limit
+     *              the maximum number of accounts.
+     * @return
+     *              the first accounts in first name order.
+     */
+    List<Account> searchByFirstname(String prefix, int limit);
+
+    /**
+     * Tells if a secondary index holds every account. Queries keep working
+     * while an index is being built, by scanning instead.
+     *
+     * @param index
+     *              the index.
+     * @return
+     *              true if the index is ready.
+     */
+    boolean isIndexReady(SecondaryIndex index);
+
+    /**
+     * Gets the balance of an account without building an account object.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the balance, or {@link Double#NaN} if the account does not exist.
+     */
+    double balanceOf(long id);
+
+    /**
+     * Gets the last committed state of an account, for callers that must
+     * not wait for the store lock where the store can avoid it.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the version, or {@code null} if the account does not exist.
+     */
+    AccountVersion latestVersion(long id);
+
+    /**
+     * Passes the id and balance of every account to an action, read in place.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    void forEachBalance(BalanceConsumer action);
+
+    /**
+     * Passes a read-only projection of every account to an action, read in
+     * place. A projection is valid only during the call that receives it.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    void forEachProjection(Consumer<? super AccountProjection> action);
+
+    /**
+     * Opens a consistent, read-only snapshot of all the accounts.
+     *
+     * @return
+     *              the snapshot, to be closed after use.
+     */
+    AccountSnapshot openSnapshot();
+
+    /**
+     * Returns the publisher of the changes committed to the store.
+     *
+     * @return
+     *              the change publisher.
+     */
+    ChangePublisher changes();
 }
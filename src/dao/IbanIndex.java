@@ -0,0 +1,178 @@
+package dao;
+
+import model.Account;
+import model.IbanCodec;
+
+/**
+ * Open-addressing hash index from IBAN keys to accounts.
+ * <p>
+ * Keys are the two-long keys of {@link IbanCodec}, stored in primitive
+ * arrays, so lookups neither allocate nor hash strings. Only hashed keys of
+ * long IBANs are confirmed against the stored IBAN. The index is not
+ * thread-safe; callers must guard it.
+ */
+final class IbanIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] highs = new long[INITIAL_CAPACITY];
+    private long[] lows = new long[INITIAL_CAPACITY];
+    private Account[] values = new Account[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Gets the account with the given iban.
+     *
+     * @param iban
+     *              the iban, in any spacing and case.
+     * @return
+     *              the account, or {@code null} if not indexed.
+     */
+    Account get(CharSequence iban) {
+        if (iban == null) return null;
+
+        int slot = find(IbanCodec.keyHigh(iban), IbanCodec.keyLow(iban), iban);
+        return slot == -1 ? null : values[slot];
+    }
+
+    /**
+     * Indexes an account by its iban if no other account has it.
+     *
+     * @param account
+     *              the account to be indexed.
+     * @return
+     *              the account already indexed under the iban, or {@code null} if the account was indexed.
+     */
+    Account putIfAbsent(Account account) {
+        return putIfAbsent(account.getIban(), account);
+    }
+
+    /**
+     * Indexes an account under the given iban if no other account has it.
+     *
+     * @param iban
+     *              the iban to index the account under.
+     * @param account
+     *              the account to be indexed.
+     * @return
+     *              the account already indexed under the iban, or {@code null} if the account was indexed.
+     */
+    Account putIfAbsent(String iban, Account account) {
+        if (iban == null) return null;
+
+        long high = IbanCodec.keyHigh(iban);
+        long low = IbanCodec.keyLow(iban);
+        int slot = find(high, low, iban);
+        if (slot != -1) return values[slot] == account ? null : values[slot];
+
+        if ((size + 1) * 4 > values.length * 3) resize();
+        insert(high, low, account);
+        size++;
+        return null;
+    }
+
+    /**
+     * Indexes an account by its iban, replacing any account indexed under it.
+     *
+     * @param account
+     *              the account to be indexed.
+     */
+    void put(Account account) {
+        String iban = account.getIban();
+        if (iban == null) return;
+
+        int slot = find(IbanCodec.keyHigh(iban), IbanCodec.keyLow(iban), iban);
+        if (slot != -1) {
+            values[slot] = account;
+            return;
+        }
+        putIfAbsent(account);
+    }
+
+    /**
+     * Removes an iban from the index if it is indexed to the given account.
+     *
+     * @param iban
+     *              the iban to be removed.
+     * @param account
+     *              the account expected under the iban.
+     */
+    void remove(String iban, Account account) {
+        if (iban == null) return;
+
+        int slot = find(IbanCodec.keyHigh(iban), IbanCodec.keyLow(iban), iban);
+        if (slot == -1 || values[slot] != account) return;
+
+        deleteSlot(slot);
+        size--;
+    }
+
+    /**
+     * Removes all the entries of the index.
+     */
+    void clear() {
+        highs = new long[INITIAL_CAPACITY];
+        lows = new long[INITIAL_CAPACITY];
+        values = new Account[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private int find(long high, long low, CharSequence iban) {
+        int mask = values.length - 1;
+        for (int slot = slotOf(high, low, mask); values[slot] != null; slot = (slot + 1) & mask) {
+            if (highs[slot] != high || lows[slot] != low) continue;
+            if (IbanCodec.isExactKey(high) || IbanCodec.sameIban(values[slot].getIban(), iban)) return slot;
+        }
+        return -1;
+    }
+
+    private void insert(long high, long low, Account account) {
+        int mask = values.length - 1;
+        int slot = slotOf(high, low, mask);
+        while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        highs[slot] = high;
+        lows[slot] = low;
+        values[slot] = account;
+    }
+
+    /**
+     * Empties a slot and shifts back the entries of its probe run,
+     * so that lookups never need tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int mask = values.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = slotOf(highs[next], lows[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                highs[hole] = highs[next];
+                lows[hole] = lows[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        highs[hole] = 0L;
+        lows[hole] = 0L;
+        values[hole] = null;
+    }
+
+    private void resize() {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        Account[] oldValues = values;
+        highs = new long[oldValues.length * 2];
+        lows = new long[oldValues.length * 2];
+        values = new Account[oldValues.length * 2];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) insert(oldHighs[i], oldLows[i], oldValues[i]);
+        }
+    }
+
+    private static int slotOf(long high, long low, int mask) {
+        long h = (high * 0x9E3779B97F4A7C15L) ^ low;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29)) & mask;
+    }
+}
@@ -0,0 +1,123 @@
+package dao;
+
+import model.Account;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds deferred secondary indexes of a store in the background.
+ * <p>
+ * A bulk load only stores the accounts and queues their ids; one thread
+ * per deferred index then walks the queue with its own cursor and indexes
+ * the accounts in chunks, each under the store lock, so writers are held
+ * up for one chunk at most. Since every chunk takes the same lock, the
+ * builders of different indexes take turns with each other and with the
+ * writers rather than running in parallel. An index is ready once its
+ * cursor reaches the end of the queue. Writers keep
+ * maintaining every index meanwhile; since adding an account to an index
+ * twice changes nothing, the builder and the writers never conflict. The
+ * queue is emptied once every cursor has reached its end.
+ */
+final class IndexBuilder {
+    private static final int CHUNK = 1024;
+    private static final SecondaryIndex[] INDEXES = SecondaryIndex.values();
+
+    /**
+     * Adds a chunk of accounts to one index. Called under the store lock.
+     */
+    interface Indexer {
+        void index(SecondaryIndex index, List<Account> chunk);
+    }
+
+    private final Object lock;
+    private final Map<Long, Account> accounts;
+    private final Indexer indexer;
+    private final String name;
+    private final int[] cursors = new int[INDEXES.length];
+    private final Thread[] builders = new Thread[INDEXES.length];
+    private long[] queue = HolderIndex.EMPTY;
+    private int queued;
+    private volatile int staleMask;
+
+    /**
+     * @param lock
+     *              the store lock, guarding the accounts and the indexes.
+     * @param accounts
+     *              the accounts of the store by id.
+     * @param indexer
+     *              adds an account to an index.
+     * @param name
+     *              the prefix of the builder thread names.
+     */
+    IndexBuilder(Object lock, Map<Long, Account> accounts, Indexer indexer, String name) {
+        this.lock = lock;
+        this.accounts = accounts;
+        this.indexer = indexer;
+        this.name = name;
+    }
+
+    /**
+     * Tells if an index holds every account. Does not take the store lock.
+     *
+     * @param index
+     *              the index.
+     * @return
+     *              true if the index is ready.
+     */
+    boolean isReady(SecondaryIndex index) {
+        return (staleMask & (1 << index.ordinal())) == 0;
+    }
+
+    /**
+     * Queues an account for the given indexes and starts their builders.
+     * Must be called under the store lock.
+     *
+     * @param id
+     *              the id of the account.
+     * @param indexes
+     *              the indexes the account was not added to.
+     */
+    void defer(long id, SecondaryIndex... indexes) {
+        if (queued == queue.length) queue = Arrays.copyOf(queue, Math.max(16, queued * 2));
+        queue[queued++] = id;
+
+        for (SecondaryIndex index : indexes) {
+            staleMask |= 1 << index.ordinal();
+            if (builders[index.ordinal()] != null) continue;
+
+            Thread builder = new Thread(() -> build(index), name + "-" + index.name().toLowerCase() + "-index");
+            builder.setDaemon(true);
+            builders[index.ordinal()] = builder;
+            builder.start();
+        }
+    }
+
+    private void build(SecondaryIndex index) {
+        int i = index.ordinal();
+        while (true) {
+            synchronized (lock) {
+                int end = Math.min(cursors[i] + CHUNK, queued);
+                List<Account> chunk = new ArrayList<>(end - cursors[i]);
+                for (int k = cursors[i]; k < end; k++) {
+                    Account account = accounts.get(queue[k]);
+                    if (account != null) chunk.add(account);
+                }
+                indexer.index(index, chunk);
+                cursors[i] = end;
+                if (end < queued) continue;
+
+                builders[i] = null;
+                staleMask &= ~(1 << i);
+                if (staleMask == 0) {
+                    queue = HolderIndex.EMPTY;
+                    queued = 0;
+                    Arrays.fill(cursors, 0);
+                }
+                return;
+            }
+        }
+    }
+}
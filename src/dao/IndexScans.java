@@ -0,0 +1,86 @@
+package dao;
+
+import model.Account;
+import model.IbanCodec;
+import model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Scans over all the accounts that answer the queries of a secondary index
+ * while the index is still being built. The results match those of the
+ * index: lookups in id order, prefix searches in key order. Callers must
+ * hold the store lock.
+ */
+final class IndexScans {
+    private IndexScans() {}
+
+    static Account byIban(Collection<Account> accounts, String iban) {
+        if (iban == null) return null;
+
+        for (Account account : accounts) {
+            if (IbanCodec.sameIban(account.getIban(), iban)) return account;
+        }
+        return null;
+    }
+
+    static List<Account> byHolderId(Collection<Account> accounts, long holderId) {
+        return filter(accounts, account -> account.getHolder() != null && account.getHolder().getId() == holderId);
+    }
+
+    static List<Account> bySsn(Collection<Account> accounts, String ssn) {
+        return filter(accounts, account -> account.isSsnValid(ssn));
+    }
+
+    static List<Account> byLastname(Collection<Account> accounts, String lastname) {
+        if (lastname == null) return new ArrayList<>();
+
+        return filter(accounts, account -> account.getHolder() != null && lastname.equals(account.getHolder().getLastname()));
+    }
+
+    static List<Account> byIbanPrefix(Collection<Account> accounts, String prefix, int limit) {
+        return byPrefix(accounts, IbanCodec.normalize(prefix), limit,
+                account -> account.getIban() == null ? null : IbanCodec.normalize(account.getIban()));
+    }
+
+    static List<Account> byLastnamePrefix(Collection<Account> accounts, String prefix, int limit) {
+        return byPrefix(accounts, prefix, limit, account -> name(account.getHolder(), true));
+    }
+
+    static List<Account> byFirstnamePrefix(Collection<Account> accounts, String prefix, int limit) {
+        return byPrefix(accounts, prefix, limit, account -> name(account.getHolder(), false));
+    }
+
+    private static List<Account> filter(Collection<Account> accounts, Predicate<Account> filter) {
+        List<Account> result = new ArrayList<>();
+        for (Account account : accounts) {
+            if (filter.test(account)) result.add(account);
+        }
+        result.sort(Comparator.comparingLong(Account::getId));
+        return result;
+    }
+
+    private static List<Account> byPrefix(Collection<Account> accounts, String prefix, int limit,
+                                          Function<Account, String> key) {
+        if (prefix == null || limit <= 0) return new ArrayList<>();
+
+        String upper = prefix.toUpperCase();
+        List<Account> result = filter(accounts, account -> {
+            String k = key.apply(account);
+            return k != null && k.toUpperCase().startsWith(upper);
+        });
+        result.sort(Comparator.comparing((Account account) -> key.apply(account).toUpperCase()));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private static String name(User holder, boolean last) {
+        if (holder == null) return null;
+
+        return last ? holder.getLastname() : holder.getFirstname();
+    }
+}
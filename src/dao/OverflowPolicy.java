@@ -0,0 +1,15 @@
+package dao;
+
+/**
+ * What a change subscription does when its buffer is full. Writers never
+ * wait for subscribers, so a slow subscriber either loses changes, which it
+ * can tell from the gaps in their sequence, or is cut off.
+ */
+public enum OverflowPolicy {
+    /** Drops the oldest buffered change to make room. */
+    DROP_OLDEST,
+    /** Drops the new change. */
+    DROP_LATEST,
+    /** Cancels the subscription and signals an error to the subscriber. */
+    ERROR
+}
@@ -0,0 +1,15 @@
+package dao;
+
+/**
+ * The outcome of patching an account in the store.
+ */
+public enum PatchStatus {
+    /** The changes were applied. */
+    APPLIED,
+    /** The changes left the account as it was; nothing was committed. */
+    UNCHANGED,
+    /** No account has the given id. */
+    NOT_FOUND,
+    /** The new iban belongs to another account; nothing was changed. */
+    IBAN_TAKEN
+}
@@ -0,0 +1,94 @@
+package dao;
+
+import java.util.Arrays;
+
+/**
+ * The account ids of one key of an index: a sorted array and a log of the
+ * changes made since it was last merged. Changes cost amortized constant
+ * time however many ids the key has, and the merged ids are never changed
+ * afterwards, so readers can use them without locking.
+ */
+final class Postings {
+    private static final int MIN_LOG = 4;
+
+    private long[] ids = HolderIndex.EMPTY;
+    private long[] log = new long[MIN_LOG];
+    private boolean[] added = new boolean[MIN_LOG];
+    private int logged;
+
+    /**
+     * Logs the addition or removal of an id, merging the log once it
+     * is as long as the ids. Removals from short lists merge at once,
+     * so a key whose last account is removed is dropped.
+     *
+     * @return
+     *              these postings, or {@code null} once they are empty.
+     */
+    synchronized Postings change(long id, boolean add) {
+        if (logged == log.length) {
+            log = Arrays.copyOf(log, logged * 2);
+            added = Arrays.copyOf(added, logged * 2);
+        }
+        log[logged] = id;
+        added[logged++] = add;
+        if (logged >= Math.max(MIN_LOG, ids.length) || (!add && ids.length < MIN_LOG)) merge();
+        return ids.length == 0 && logged == 0 ? null : this;
+    }
+
+    synchronized long[] ids() {
+        if (logged > 0) merge();
+        return ids;
+    }
+
+    /**
+     * Applies the log to the ids. Only the last change of each id counts,
+     * so adding an id twice or removing one that is absent changes nothing.
+     */
+    private void merge() {
+        int tableMask = Integer.highestOneBit(logged) * 4 - 1;
+        long[] seen = new long[tableMask + 1];
+        boolean[] used = new boolean[tableMask + 1];
+        long[] adds = new long[logged];
+        long[] removes = new long[logged];
+        int addCount = 0;
+        int removeCount = 0;
+        for (int i = logged - 1; i >= 0; i--) {
+            long id = log[i];
+            int slot = slotOf(id, tableMask);
+            while (used[slot] && seen[slot] != id) {
+                slot = (slot + 1) & tableMask;
+            }
+            if (used[slot]) continue;
+
+            used[slot] = true;
+            seen[slot] = id;
+            if (added[i]) adds[addCount++] = id;
+            else removes[removeCount++] = id;
+        }
+        Arrays.sort(adds, 0, addCount);
+        Arrays.sort(removes, 0, removeCount);
+
+        long[] merged = new long[ids.length + addCount];
+        int i = 0;
+        int j = 0;
+        int r = 0;
+        int n = 0;
+        while (i < ids.length || j < addCount) {
+            long next = j == addCount || (i < ids.length && ids[i] <= adds[j]) ? ids[i++] : adds[j++];
+            while (r < removeCount && removes[r] < next) r++;
+            if (r < removeCount && removes[r] == next) continue;
+            if (n == 0 || merged[n - 1] != next) merged[n++] = next;
+        }
+        ids = n == merged.length ? merged : Arrays.copyOf(merged, n);
+        logged = 0;
+        if (log.length > MIN_LOG) {
+            log = new long[MIN_LOG];
+            added = new boolean[MIN_LOG];
+        }
+    }
+
+    private static int slotOf(long id, int mask) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 29)) & mask;
+    }
+}
@@ -0,0 +1,239 @@
+package dao;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Radix tree from string keys to account ids, for prefix searches.
+ * <p>
+ * Chains of single-child nodes are collapsed into one edge, children are
+ * kept in arrays sorted by the first character of their edge and the ids of
+ * a key are {@link Postings}, so the tree stays compact and a key shared by
+ * many accounts still changes in amortized constant time. A search
+ * walks down to the prefix and collects ids in key order until it has
+ * enough, so its cost depends on the prefix length and the number of
+ * results, not on the size of the tree. Keys are compared in upper case.
+ */
+final class PrefixIndex {
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node root = new Node(NO_CHARS);
+
+    /**
+     * Adds an account id under a key.
+     *
+     * @param key
+     *              the key.
+     * @param id
+     *              the account id.
+     */
+    void add(String key, long id) {
+        if (key == null || key.isEmpty()) return;
+
+        char[] chars = normalize(key);
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            int i = 0;
+            while (i < chars.length) {
+                int pos = node.find(chars[i]);
+                if (pos < 0) {
+                    Node leaf = new Node(Arrays.copyOfRange(chars, i, chars.length));
+                    node.addChild(-pos - 1, leaf);
+                    node = leaf;
+                    break;
+                }
+
+                Node child = node.children[pos];
+                int common = commonPrefix(child.edge, chars, i);
+                if (common < child.edge.length) {
+                    Node split = new Node(Arrays.copyOf(child.edge, common));
+                    child.edge = Arrays.copyOfRange(child.edge, common, child.edge.length);
+                    split.firstChars = new char[] {child.edge[0]};
+                    split.children = new Node[] {child};
+                    node.children[pos] = split;
+                    child = split;
+                }
+                node = child;
+                i += common;
+            }
+            if (node.postings == null) node.postings = new Postings();
+            node.postings.change(id, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an account id from a key, pruning the nodes left empty.
+     *
+     * @param key
+     *              the key.
+     * @param id
+     *              the account id.
+     */
+    void remove(String key, long id) {
+        if (key == null || key.isEmpty()) return;
+
+        char[] chars = normalize(key);
+        lock.writeLock().lock();
+        try {
+            Node parent = null;
+            Node node = root;
+            int i = 0;
+            while (i < chars.length) {
+                int pos = node.find(chars[i]);
+                if (pos < 0) return;
+
+                Node child = node.children[pos];
+                if (commonPrefix(child.edge, chars, i) < child.edge.length) return;
+                parent = node;
+                node = child;
+                i += child.edge.length;
+            }
+
+            if (node.postings != null) node.postings = node.postings.change(id, false);
+            if (node.postings != null || parent == null) return;
+
+            if (node.children.length == 0) {
+                parent.removeChild(parent.find(node.edge[0]));
+                if (parent != root && parent.postings == null && parent.children.length == 1) parent.absorbChild();
+            } else if (node.children.length == 1) {
+                node.absorbChild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Collects the ids under the keys starting with a prefix, in key order.
+     *
+     * @param prefix
+     *              the prefix.
+     * @param limit
+     *              the maximum number of ids.
+     * @return
+     *              the ids, at most {@code limit} of them.
+     */
+    long[] search(String prefix, int limit) {
+        if (prefix == null || limit <= 0) return HolderIndex.EMPTY;
+
+        char[] chars = normalize(prefix);
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            int i = 0;
+            while (i < chars.length) {
+                int pos = node.find(chars[i]);
+                if (pos < 0) return HolderIndex.EMPTY;
+
+                Node child = node.children[pos];
+                int common = commonPrefix(child.edge, chars, i);
+                if (common < child.edge.length && i + common < chars.length) return HolderIndex.EMPTY;
+                node = child;
+                i += common;
+            }
+
+            long[] result = new long[limit];
+            int count = collect(node, result, 0);
+            return count == limit ? result : Arrays.copyOf(result, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all the keys.
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            root = new Node(NO_CHARS);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int collect(Node node, long[] result, int count) {
+        long[] ids = node.postings == null ? HolderIndex.EMPTY : node.postings.ids();
+        for (int j = 0; j < ids.length && count < result.length; j++) {
+            result[count++] = ids[j];
+        }
+        for (int j = 0; j < node.children.length && count < result.length; j++) {
+            count = collect(node.children[j], result, count);
+        }
+        return count;
+    }
+
+    private static char[] normalize(String key) {
+        char[] chars = key.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toUpperCase(chars[i]);
+        }
+        return chars;
+    }
+
+    private static int commonPrefix(char[] edge, char[] key, int offset) {
+        int n = Math.min(edge.length, key.length - offset);
+        int i = 0;
+        while (i < n && edge[i] == key[offset + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static final class Node {
+        private char[] edge;
+        private char[] firstChars = NO_CHARS;
+        private Node[] children = NO_NODES;
+        private Postings postings;
+
+        Node(char[] edge) {
+            this.edge = edge;
+        }
+
+        int find(char c) {
+            return Arrays.binarySearch(firstChars, c);
+        }
+
+        void addChild(int pos, Node child) {
+            char[] chars = new char[firstChars.length + 1];
+            Node[] nodes = new Node[children.length + 1];
+            System.arraycopy(firstChars, 0, chars, 0, pos);
+            System.arraycopy(children, 0, nodes, 0, pos);
+            chars[pos] = child.edge[0];
+            nodes[pos] = child;
+            System.arraycopy(firstChars, pos, chars, pos + 1, firstChars.length - pos);
+            System.arraycopy(children, pos, nodes, pos + 1, children.length - pos);
+            firstChars = chars;
+            children = nodes;
+        }
+
+        void removeChild(int pos) {
+            char[] chars = new char[firstChars.length - 1];
+            Node[] nodes = new Node[children.length - 1];
+            System.arraycopy(firstChars, 0, chars, 0, pos);
+            System.arraycopy(children, 0, nodes, 0, pos);
+            System.arraycopy(firstChars, pos + 1, chars, pos, chars.length - pos);
+            System.arraycopy(children, pos + 1, nodes, pos, nodes.length - pos);
+            firstChars = chars;
+            children = nodes;
+        }
+
+        /**
+         * Merges the only child into this node, which has no ids of its own.
+         */
+        void absorbChild() {
+            Node child = children[0];
+            char[] merged = Arrays.copyOf(edge, edge.length + child.edge.length);
+            System.arraycopy(child.edge, 0, merged, edge.length, child.edge.length);
+            edge = merged;
+            firstChars = child.firstChars;
+            children = child.children;
+            postings = child.postings;
+        }
+    }
+}
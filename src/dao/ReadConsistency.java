@@ -0,0 +1,55 @@
+package dao;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The consistency a read requires from a replica.
+ */
+public final class ReadConsistency {
+    private final long maxLagNanos;
+    private final long minSequence;
+
+    private ReadConsistency(long maxLagNanos, long minSequence) {
+        this.maxLagNanos = maxLagNanos;
+        this.minSequence = minSequence;
+    }
+
+    /**
+     * Accepts a replica that is at most the given time behind the primary.
+     *
+     * @param maxLag
+     *              the maximum lag.
+     * @param unit
+     *              the unit of the lag.
+     * @return
+     *              the consistency.
+     */
+    public static ReadConsistency boundedStaleness(long maxLag, TimeUnit unit) {
+        return new ReadConsistency(unit.toNanos(maxLag), 0);
+    }
+
+    /**
+     * Accepts a replica that has applied at least the given change,
+     * typically the last change written by the reader.
+     *
+     * @param sequence
+     *              the sequence of the change.
+     * @return
+     *              the consistency.
+     */
+    public static ReadConsistency readYourWrites(long sequence) {
+        return new ReadConsistency(Long.MAX_VALUE, sequence);
+    }
+
+    /**
+     * Checks if a replica satisfies the consistency.
+     *
+     * @param replica
+     *              the replica.
+     * @return
+     *              true if the replica may serve the read, false otherwise.
+     */
+    boolean isSatisfiedBy(ReplicaAccountDAO replica) {
+        return replica.getAppliedSequence() >= minSequence && replica.getLagNanos() <= maxLagNanos;
+    }
+}
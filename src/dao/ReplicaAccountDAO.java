@@ -0,0 +1,346 @@
+package dao;
+
+import model.Account;
+import model.SsnDigest;
+import model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Read-only follower of a primary account store.
+ * <p>
+ * Changes shipped by the primary are queued and applied asynchronously by
+ * a dedicated thread, in sequence order. The replica serves reads and
+ * snapshots from its own copy of the accounts; all mutations are rejected.
+ */
+public class ReplicaAccountDAO implements IAccountDAO, AutoCloseable {
+    private final LinkedHashMap<Long, Account> accounts = new LinkedHashMap<>();
+    private final IbanIndex ibanIndex = new IbanIndex();
+    private final HolderIndex holderIndex = new HolderIndex();
+    private final AccountPrefixes prefixes = new AccountPrefixes();
+    private final AccountVersions versions = new AccountVersions();
+    private final ChangePublisher changes = new ChangePublisher();
+    private final LinkedBlockingQueue<AccountChange> pending = new LinkedBlockingQueue<>();
+    private final IndexBuilder builder;
+    private final Thread applier;
+    private volatile AccountChange applying;
+    private volatile long appliedSequence;
+
+    public ReplicaAccountDAO(String name) {
+        builder = new IndexBuilder(accounts, accounts, this::buildIndex, name);
+        applier = new Thread(this::applyChanges, name);
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    /**
+     * Receives a change shipped by the primary. It is applied asynchronously.
+     *
+     * @param change
+     *              the change.
+     */
+    public void receive(AccountChange change) {
+        pending.add(change);
+    }
+
+    /**
+     * Returns the sequence of the last change applied.
+     *
+     * @return
+     *              the applied sequence.
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Returns how long the oldest change not yet applied has been waiting.
+     *
+     * @return
+     *              the lag in nanoseconds, or 0 if the replica is caught up.
+     */
+    public long getLagNanos() {
+        AccountChange next = applying;
+        if (next == null) next = pending.peek();
+        return next == null ? 0L : System.nanoTime() - next.getCommitNanos();
+    }
+
+    /**
+     * Loads the state of the primary before any change is shipped. Only the
+     * accounts are loaded at once; the secondary indexes are built in the
+     * background while the replica already serves.
+     *
+     * @param snapshot
+     *              a snapshot of the primary.
+     * @param sequence
+     *              the sequence of the last change the snapshot includes.
+     */
+    void bootstrap(AccountSnapshot snapshot, long sequence) {
+        synchronized (accounts) {
+            snapshot.forEach(version -> {
+                Account account = toAccount(version.getId(), version.getHolder(), version.getIban(), version.getBalance());
+                accounts.put(account.getId(), account);
+                versions.commit(account);
+                builder.defer(account.getId(), SecondaryIndex.values());
+            });
+            appliedSequence = sequence;
+        }
+    }
+
+    @Override
+    public Account insert(Account account) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<Account> insertAll(List<Account> batch) {
+        throw readOnly();
+    }
+
+    @Override
+    public Account update(long id, Account account) {
+        throw readOnly();
+    }
+
+    @Override
+    public PatchStatus patch(long id, String iban, Consumer<? super Account> changes) {
+        throw readOnly();
+    }
+
+    @Override
+    public void delete(long id) {
+        throw readOnly();
+    }
+
+    @Override
+    public void delete(String iban) {
+        throw readOnly();
+    }
+
+    @Override
+    public Account get(long id) {
+        synchronized (accounts) {
+            return accounts.get(id);
+        }
+    }
+
+    @Override
+    public List<Account> getAll() {
+        synchronized (accounts) {
+            return new ArrayList<>(accounts.values());
+        }
+    }
+
+    @Override
+    public Account get(String iban) {
+        synchronized (accounts) {
+            if (!builder.isReady(SecondaryIndex.IBAN)) return IndexScans.byIban(accounts.values(), iban);
+
+            return ibanIndex.get(iban);
+        }
+    }
+
+    @Override
+    public boolean ibanExists(String iban) {
+        return get(iban) != null;
+    }
+
+    @Override
+    public boolean userIdExists(long id) {
+        synchronized (accounts) {
+            return accounts.containsKey(id);
+        }
+    }
+
+    @Override
+    public List<Account> getByHolderId(long holderId) {
+        if (!builder.isReady(SecondaryIndex.HOLDER)) return scan(all -> IndexScans.byHolderId(all, holderId));
+
+        return resolve(holderIndex.byHolderId(holderId));
+    }
+
+    @Override
+    public List<Account> getBySsn(String ssn) {
+        if (ssn == null) return new ArrayList<>();
+        if (!builder.isReady(SecondaryIndex.HOLDER)) return scan(all -> IndexScans.bySsn(all, ssn));
+
+        List<Account> accounts = resolve(holderIndex.bySsnHigh(SsnDigest.high(ssn)));
+        accounts.removeIf(account -> !account.isSsnValid(ssn));
+        return accounts;
+    }
+
+    @Override
+    public List<Account> getByLastname(String lastname) {
+        if (!builder.isReady(SecondaryIndex.HOLDER)) return scan(all -> IndexScans.byLastname(all, lastname));
+
+        return resolve(holderIndex.byLastname(lastname));
+    }
+
+    @Override
+    public List<Account> searchByIban(String prefix, int limit) {
+        if (!builder.isReady(SecondaryIndex.PREFIX)) return scan(all -> IndexScans.byIbanPrefix(all, prefix, limit));
+
+        return resolve(prefixes.byIbanPrefix(prefix, limit));
+    }
+
+    @Override
+    public List<Account> searchByLastname(String prefix, int limit) {
+        if (!builder.isReady(SecondaryIndex.PREFIX)) return scan(all -> IndexScans.byLastnamePrefix(all, prefix, limit));
+
+        return resolve(prefixes.byLastnamePrefix(prefix, limit));
+    }
+
+    @Override
+    public List<Account> searchByFirstname(String prefix, int limit) {
+        if (!builder.isReady(SecondaryIndex.PREFIX)) return scan(all -> IndexScans.byFirstnamePrefix(all, prefix, limit));
+
+        return resolve(prefixes.byFirstnamePrefix(prefix, limit));
+    }
+
+    @Override
+    public boolean isIndexReady(SecondaryIndex index) {
+        return builder.isReady(index);
+    }
+
+    @Override
+    public double balanceOf(long id) {
+        AccountVersion latest = versions.latest(id);
+        return latest == null ? Double.NaN : latest.getBalance();
+    }
+
+    @Override
+    public AccountVersion latestVersion(long id) {
+        return versions.latest(id);
+    }
+
+    @Override
+    public void forEachBalance(BalanceConsumer action) {
+        versions.forEachLatest(version -> action.accept(version.getId(), version.getBalance()));
+    }
+
+    @Override
+    public void forEachProjection(Consumer<? super AccountProjection> action) {
+        versions.forEachLatest(action);
+    }
+
+    @Override
+    public AccountSnapshot openSnapshot() {
+        return versions.open();
+    }
+
+    /**
+     * Returns the publisher of the changes this replica applies, with
+     * the sequence numbers of the primary.
+     *
+     * @return
+     *              the change publisher.
+     */
+    @Override
+    public ChangePublisher changes() {
+        return changes;
+    }
+
+    /**
+     * Stops applying changes and completes the change subscribers.
+     */
+    @Override
+    public void close() {
+        applier.interrupt();
+        changes.close();
+    }
+
+    private void applyChanges() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                applying = pending.take();
+                apply(applying);
+                applying = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies a change, skipping changes the replica already has.
+     */
+    private void apply(AccountChange change) {
+        synchronized (accounts) {
+            if (change.getSequence() <= appliedSequence) return;
+
+            if (change.getType() == AccountChange.Type.DELETE) {
+                Account removed = accounts.remove(change.getId());
+                if (removed != null) {
+                    ibanIndex.remove(removed.getIban(), removed);
+                    holderIndex.remove(removed.getId(), removed.getHolder());
+                    prefixes.remove(removed.getId(), removed.getIban(), removed.getHolder());
+                    versions.commitDelete(change.getId());
+                }
+            } else {
+                upsert(change.getId(), toAccount(change.getId(), change.getHolder(), change.getIban(), change.getBalance()));
+            }
+            appliedSequence = change.getSequence();
+            if (changes.hasSubscribers()) changes.publish(change);
+        }
+    }
+
+    private void upsert(long id, Account account) {
+        Account previous = accounts.put(id, account);
+        if (previous != null) {
+            ibanIndex.remove(previous.getIban(), previous);
+            holderIndex.remove(id, previous.getHolder());
+            prefixes.remove(id, previous.getIban(), previous.getHolder());
+        }
+        ibanIndex.put(account);
+        holderIndex.add(id, account.getHolder());
+        prefixes.add(id, account.getIban(), account.getHolder());
+        versions.commit(account);
+    }
+
+    private void buildIndex(SecondaryIndex index, List<Account> chunk) {
+        switch (index) {
+            case IBAN:
+                chunk.forEach(ibanIndex::put);
+                break;
+            case HOLDER:
+                chunk.forEach(account -> holderIndex.add(account.getId(), account.getHolder()));
+                break;
+            case PREFIX:
+                chunk.forEach(account -> prefixes.add(account.getId(), account.getIban(), account.getHolder()));
+                break;
+        }
+    }
+
+    private List<Account> scan(Function<Collection<Account>, List<Account>> query) {
+        synchronized (accounts) {
+            return query.apply(accounts.values());
+        }
+    }
+
+    private List<Account> resolve(long[] ids) {
+        List<Account> result = new ArrayList<>(ids.length);
+        synchronized (accounts) {
+            for (long id : ids) {
+                Account account = accounts.get(id);
+                if (account != null) result.add(account);
+            }
+        }
+        return result;
+    }
+
+    private static Account toAccount(long id, User holder, String iban, double balance) {
+        Account account = new Account(holder, iban, balance);
+        account.setId(id);
+        return account;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Replicas are read-only");
+    }
+}
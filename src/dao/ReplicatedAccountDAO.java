@@ -0,0 +1,249 @@
+package dao;
+
+import model.Account;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Primary account store that ships its changes to read replicas.
+ * <p>
+ * Every mutation is applied to the primary store and then shipped, under
+ * the same lock, as a numbered {@link AccountChange}, so the change stream
+ * follows the commit order. Replicas apply the stream asynchronously. Reads
+ * through this store go to the primary; {@link #reader} picks a replica that
+ * satisfies a given consistency instead.
+ */
+public class ReplicatedAccountDAO implements IAccountDAO {
+    private final IAccountDAO primary;
+    private final List<ReplicaAccountDAO> replicas = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Object writeLock = new Object();
+    private volatile long sequence;
+
+    public ReplicatedAccountDAO(IAccountDAO primary) {
+        this.primary = primary;
+    }
+
+    /**
+     * Adds a replica, loading it with the current state of the primary.
+     *
+     * @param replica
+     *              the replica.
+     */
+    public void addReplica(ReplicaAccountDAO replica) {
+        synchronized (writeLock) {
+            try (AccountSnapshot snapshot = primary.openSnapshot()) {
+                replica.bootstrap(snapshot, sequence);
+            }
+            replicas.add(replica);
+        }
+    }
+
+    /**
+     * Returns the sequence of the last change shipped. A writer can read
+     * its own writes from replicas that have applied this sequence.
+     *
+     * @return
+     *              the last sequence.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Picks a store to read from: a replica that satisfies the consistency,
+     * spreading reads across replicas, or the primary if none does.
+     *
+     * @param consistency
+     *              the required consistency.
+     * @return
+     *              the store to read from.
+     */
+    public IAccountDAO reader(ReadConsistency consistency) {
+        int count = replicas.size();
+        int start = nextReplica.getAndIncrement();
+        for (int i = 0; i < count; i++) {
+            ReplicaAccountDAO replica = replicas.get(Math.floorMod(start + i, count));
+            if (consistency.isSatisfiedBy(replica)) return replica;
+        }
+        return primary;
+    }
+
+    @Override
+    public Account insert(Account account) {
+        synchronized (writeLock) {
+            Account inserted = primary.insert(account);
+            if (inserted != null) ship(AccountChange.Type.INSERT, inserted.getId(), inserted);
+            return inserted;
+        }
+    }
+
+    @Override
+    public List<Account> insertAll(List<Account> batch) {
+        synchronized (writeLock) {
+            List<Account> rejected = primary.insertAll(batch);
+            Set<Account> skipped = Collections.newSetFromMap(new IdentityHashMap<>());
+            skipped.addAll(rejected);
+            for (Account account : batch) {
+                if (!skipped.contains(account)) ship(AccountChange.Type.INSERT, account.getId(), account);
+            }
+            return rejected;
+        }
+    }
+
+    @Override
+    public Account update(long id, Account account) {
+        synchronized (writeLock) {
+            Account previous = primary.update(id, account);
+            if (previous == null) return null;
+
+            if (previous.getId() == account.getId()) {
+                ship(AccountChange.Type.UPDATE, account.getId(), account);
+            } else {
+                ship(AccountChange.Type.DELETE, previous.getId(), null);
+                ship(AccountChange.Type.INSERT, account.getId(), account);
+            }
+            return previous;
+        }
+    }
+
+    @Override
+    public PatchStatus patch(long id, String iban, Consumer<? super Account> changes) {
+        synchronized (writeLock) {
+            PatchStatus status = primary.patch(id, iban, changes);
+            if (status == PatchStatus.APPLIED) ship(AccountChange.Type.UPDATE, id, primary.get(id));
+            return status;
+        }
+    }
+
+    @Override
+    public void delete(long id) {
+        synchronized (writeLock) {
+            if (!primary.userIdExists(id)) return;
+
+            primary.delete(id);
+            ship(AccountChange.Type.DELETE, id, null);
+        }
+    }
+
+    @Override
+    public void delete(String iban) {
+        synchronized (writeLock) {
+            Account account = primary.get(iban);
+            if (account == null) return;
+
+            primary.delete(iban);
+            ship(AccountChange.Type.DELETE, account.getId(), null);
+        }
+    }
+
+    @Override
+    public Account get(long id) {
+        return primary.get(id);
+    }
+
+    @Override
+    public List<Account> getAll() {
+        return primary.getAll();
+    }
+
+    @Override
+    public Account get(String iban) {
+        return primary.get(iban);
+    }
+
+    @Override
+    public boolean ibanExists(String iban) {
+        return primary.ibanExists(iban);
+    }
+
+    @Override
+    public boolean userIdExists(long id) {
+        return primary.userIdExists(id);
+    }
+
+    @Override
+    public List<Account> getByHolderId(long holderId) {
+        return primary.getByHolderId(holderId);
+    }
+
+    @Override
+    public List<Account> getBySsn(String ssn) {
+        return primary.getBySsn(ssn);
+    }
+
+    @Override
+    public List<Account> getByLastname(String lastname) {
+        return primary.getByLastname(lastname);
+    }
+
+    @Override
+    public List<Account> searchByIban(String prefix, int limit) {
+        return primary.searchByIban(prefix, limit);
+    }
+
+    @Override
+    public List<Account> searchByLastname(String prefix, int limit) {
+        return primary.searchByLastname(prefix, limit);
+    }
+
+    @Override
+    public List<Account> searchByFirstname(String prefix, int limit) {
+        return primary.searchByFirstname(prefix, limit);
+    }
+
+    @Override
+    public boolean isIndexReady(SecondaryIndex index) {
+        return primary.isIndexReady(index);
+    }
+
+    @Override
+    public double balanceOf(long id) {
+        return primary.balanceOf(id);
+    }
+
+    @Override
+    public AccountVersion latestVersion(long id) {
+        return primary.latestVersion(id);
+    }
+
+    @Override
+    public void forEachBalance(BalanceConsumer action) {
+        primary.forEachBalance(action);
+    }
+
+    @Override
+    public void forEachProjection(Consumer<? super AccountProjection> action) {
+        primary.forEachProjection(action);
+    }
+
+    @Override
+    public AccountSnapshot openSnapshot() {
+        return primary.openSnapshot();
+    }
+
+    @Override
+    public ChangePublisher changes() {
+        return primary.changes();
+    }
+
+    /**
+     * Numbers a change and hands it to every replica. Must be called under the write lock.
+     */
+    private void ship(AccountChange.Type type, long id, Account account) {
+        AccountChange change = account == null
+                ? new AccountChange(sequence + 1, System.nanoTime(), type, id, null, null, 0.0)
+                : new AccountChange(sequence + 1, System.nanoTime(), type, id,
+                        account.getHolder(), account.getIban(), account.getBalance());
+        sequence = change.getSequence();
+        for (ReplicaAccountDAO replica : replicas) {
+            replica.receive(change);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package dao;
+
+/**
+ * The secondary indexes of an account store, besides the primary id map.
+ */
+public enum SecondaryIndex {
+    /** Accounts by iban. */
+    IBAN,
+    /** Accounts by holder id, ssn and last name. */
+    HOLDER,
+    /** Accounts by iban and name prefixes. */
+    PREFIX
+}
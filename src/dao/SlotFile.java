@@ -0,0 +1,384 @@
+package dao;
+
+import codec.AccountView;
+import codec.BinaryCodec;
+import model.Account;
+import model.IbanCodec;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Memory-mapped file of fixed-size account slots with on-disk hash indexes.
+ * <p>
+ * The file is a header, an open-addressing table from account ids to slots,
+ * a table from IBAN keys to slots and the slots themselves. Each slot holds
+ * the length of its record, or 0 when free, followed by a
+ * {@link BinaryCodec} account record; free slots are chained through the
+ * word after the length. Both tables live in the mapping, so opening an
+ * existing file costs nothing and neither the accounts nor their keys take
+ * heap. The capacity is fixed when the file is created and the file never
+ * grows: once it holds that many accounts, storing another one throws an
+ * {@link IllegalStateException}. The file is not thread-safe; callers must
+ * guard it.
+ */
+final class SlotFile implements AutoCloseable {
+    private static final int MAGIC = 0x54494552;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int TABLE_SIZE_OFFSET = 12;
+    private static final int USED_OFFSET = 16;
+    private static final int FREE_HEAD_OFFSET = 20;
+    private static final int COUNT_OFFSET = 24;
+
+    /** Id table entry: the id and the slot plus one, 0 when empty. */
+    private static final int ID_ENTRY = 12;
+    /** Iban table entry: the two key longs and the slot plus one, 0 when empty. */
+    private static final int IBAN_ENTRY = 20;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotSize;
+    private final int capacity;
+    private final int tableMask;
+    private final int idTable;
+    private final int ibanTable;
+    private final int slots;
+    private final ByteBuffer scratch;
+    private final AccountView view = new AccountView();
+
+    private SlotFile(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotSize = buffer.getInt(SLOT_SIZE_OFFSET);
+        this.capacity = buffer.getInt(CAPACITY_OFFSET);
+        int tableSize = buffer.getInt(TABLE_SIZE_OFFSET);
+        this.tableMask = tableSize - 1;
+        this.idTable = HEADER_SIZE;
+        this.ibanTable = idTable + tableSize * ID_ENTRY;
+        this.slots = ibanTable + tableSize * IBAN_ENTRY;
+        this.scratch = ByteBuffer.allocate(slotSize - 4);
+    }
+
+    /**
+     * Opens a slot file, creating it if it does not exist or is empty.
+     *
+     * @param path
+     *              the file.
+     * @param capacity
+     *              the most accounts a new file can hold.
+     * @param slotSize
+     *              the size in bytes of each slot of a new file.
+     * @return
+     *              the slot file.
+     */
+    static SlotFile open(Path path, int capacity, int slotSize) {
+        try {
+            boolean exists = Files.exists(path) && Files.size(path) > 0;
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                FileChannel channel = file.getChannel();
+                if (exists) return new SlotFile(channel, checkHeader(channel.map(FileChannel.MapMode.READ_WRITE, 0, file.length())));
+
+                if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+                if (slotSize < 64) throw new IllegalArgumentException("slotSize must be at least 64: " + slotSize);
+
+                int tableSize = Integer.highestOneBit(capacity) << 2;
+                long size = HEADER_SIZE + (long) tableSize * (ID_ENTRY + IBAN_ENTRY) + (long) capacity * slotSize;
+                if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("A slot file is limited to 2 GB: " + size);
+
+                file.setLength(size);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(0, MAGIC).putInt(SLOT_SIZE_OFFSET, slotSize).putInt(CAPACITY_OFFSET, capacity)
+                        .putInt(TABLE_SIZE_OFFSET, tableSize).putInt(USED_OFFSET, 0)
+                        .putInt(FREE_HEAD_OFFSET, -1).putInt(COUNT_OFFSET, 0);
+                return new SlotFile(channel, buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open slot file " + path, e);
+        }
+    }
+
+    private static MappedByteBuffer checkHeader(MappedByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a slot file");
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the number of accounts stored.
+     *
+     * @return
+     *              the account count.
+     */
+    int size() {
+        return buffer.getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * Finds the slot of an account.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the slot, or -1 if the account is not stored.
+     */
+    int slotOf(long id) {
+        int entry = findId(id);
+        return entry == -1 ? -1 : buffer.getInt(entry + 8) - 1;
+    }
+
+    /**
+     * Finds the slot of the account with an iban.
+     *
+     * @param iban
+     *              the iban, in any spacing and case.
+     * @return
+     *              the slot, or -1 if no account has the iban.
+     */
+    int slotOfIban(CharSequence iban) {
+        if (iban == null) return -1;
+
+        int entry = findIban(IbanCodec.keyHigh(iban), IbanCodec.keyLow(iban), iban);
+        return entry == -1 ? -1 : buffer.getInt(entry + 16) - 1;
+    }
+
+    /**
+     * Returns the id of the account in a slot.
+     *
+     * @param slot
+     *              the slot.
+     * @return
+     *              the account id.
+     */
+    long idAt(int slot) {
+        return view(slot).getId();
+    }
+
+    /**
+     * Returns the balance of the account in a slot, read in place.
+     *
+     * @param slot
+     *              the slot.
+     * @return
+     *              the balance.
+     */
+    double balanceAt(int slot) {
+        return view(slot).getBalance();
+    }
+
+    /**
+     * Decodes the account in a slot.
+     *
+     * @param slot
+     *              the slot.
+     * @return
+     *              a new account.
+     */
+    Account read(int slot) {
+        return view(slot).toAccount();
+    }
+
+    /**
+     * Stores an account, replacing the record with the same id. The record is
+     * encoded before anything is changed, so a record that does not fit
+     * leaves the file as it was.
+     *
+     * @param account
+     *              the account to be stored.
+     * @throws IllegalArgumentException
+     *              if the record does not fit in a slot.
+     * @throws IllegalStateException
+     *              if the file is full.
+     */
+    void put(Account account) {
+        scratch.clear();
+        try {
+            BinaryCodec.write(scratch, account);
+        } catch (BufferOverflowException e) {
+            throw new IllegalArgumentException("Account " + account.getId() + " does not fit in a slot of " + slotSize + " bytes");
+        }
+
+        int slot = slotOf(account.getId());
+        if (slot == -1) {
+            slot = allocate();
+            insertId(account.getId(), slot);
+            buffer.putInt(COUNT_OFFSET, size() + 1);
+        } else {
+            CharSequence previous = view(slot).getIban();
+            if (previous != null && !IbanCodec.sameIban(previous, account.getIban())) removeIban(previous, slot);
+        }
+
+        int offset = slots + slot * slotSize;
+        scratch.flip();
+        buffer.putInt(offset, scratch.remaining());
+        buffer.position(offset + 4);
+        buffer.put(scratch);
+        if (account.getIban() != null) putIban(account.getIban(), slot);
+    }
+
+    /**
+     * Removes an account and frees its slot.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              true if the account was stored.
+     */
+    boolean remove(long id) {
+        int entry = findId(id);
+        if (entry == -1) return false;
+
+        int slot = buffer.getInt(entry + 8) - 1;
+        CharSequence iban = view(slot).getIban();
+        if (iban != null) removeIban(iban, slot);
+        deleteEntry(idTable, ID_ENTRY, entry);
+
+        int offset = slots + slot * slotSize;
+        buffer.putInt(offset, 0);
+        buffer.putInt(offset + 4, buffer.getInt(FREE_HEAD_OFFSET));
+        buffer.putInt(FREE_HEAD_OFFSET, slot);
+        buffer.putInt(COUNT_OFFSET, size() - 1);
+        return true;
+    }
+
+    /**
+     * Performs an action for every stored account, in slot order. The view
+     * is reused between accounts and valid only during the call.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    void forEach(Consumer<? super AccountView> action) {
+        int used = buffer.getInt(USED_OFFSET);
+        for (int slot = 0; slot < used; slot++) {
+            if (buffer.getInt(slots + slot * slotSize) != 0) action.accept(view(slot));
+        }
+    }
+
+    /**
+     * Forces the changes to the storage device.
+     */
+    void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private AccountView view(int slot) {
+        return view.wrap(buffer, slots + slot * slotSize + 4);
+    }
+
+    private int allocate() {
+        int free = buffer.getInt(FREE_HEAD_OFFSET);
+        if (free != -1) {
+            buffer.putInt(FREE_HEAD_OFFSET, buffer.getInt(slots + free * slotSize + 4));
+            return free;
+        }
+        int used = buffer.getInt(USED_OFFSET);
+        if (used == capacity) throw new IllegalStateException("The slot file is full at " + capacity + " accounts");
+
+        buffer.putInt(USED_OFFSET, used + 1);
+        return used;
+    }
+
+    private int findId(long id) {
+        for (int i = idHome(id); ; i = (i + 1) & tableMask) {
+            int entry = idTable + i * ID_ENTRY;
+            if (buffer.getInt(entry + 8) == 0) return -1;
+            if (buffer.getLong(entry) == id) return entry;
+        }
+    }
+
+    private void insertId(long id, int slot) {
+        int i = idHome(id);
+        while (buffer.getInt(idTable + i * ID_ENTRY + 8) != 0) {
+            i = (i + 1) & tableMask;
+        }
+        buffer.putLong(idTable + i * ID_ENTRY, id).putInt(idTable + i * ID_ENTRY + 8, slot + 1);
+    }
+
+    private int findIban(long high, long low, CharSequence iban) {
+        for (int i = ibanHome(high, low); ; i = (i + 1) & tableMask) {
+            int entry = ibanTable + i * IBAN_ENTRY;
+            int ref = buffer.getInt(entry + 16);
+            if (ref == 0) return -1;
+            if (buffer.getLong(entry) != high || buffer.getLong(entry + 8) != low) continue;
+            if (IbanCodec.isExactKey(high) || IbanCodec.sameIban(view(ref - 1).getIban(), iban)) return entry;
+        }
+    }
+
+    private void putIban(String iban, int slot) {
+        long high = IbanCodec.keyHigh(iban);
+        long low = IbanCodec.keyLow(iban);
+        int entry = findIban(high, low, iban);
+        if (entry == -1) {
+            int i = ibanHome(high, low);
+            while (buffer.getInt(ibanTable + i * IBAN_ENTRY + 16) != 0) {
+                i = (i + 1) & tableMask;
+            }
+            entry = ibanTable + i * IBAN_ENTRY;
+            buffer.putLong(entry, high).putLong(entry + 8, low);
+        }
+        buffer.putInt(entry + 16, slot + 1);
+    }
+
+    private void removeIban(CharSequence iban, int slot) {
+        int entry = findIban(IbanCodec.keyHigh(iban), IbanCodec.keyLow(iban), iban);
+        if (entry != -1 && buffer.getInt(entry + 16) == slot + 1) deleteEntry(ibanTable, IBAN_ENTRY, entry);
+    }
+
+    /**
+     * Empties a table entry and shifts back the entries of its probe run,
+     * so that lookups never need tombstones.
+     */
+    private void deleteEntry(int table, int entrySize, int entry) {
+        int hole = (entry - table) / entrySize;
+        for (int next = (hole + 1) & tableMask; buffer.getInt(table + next * entrySize + entrySize - 4) != 0;
+             next = (next + 1) & tableMask) {
+            int home = homeOf(table, table + next * entrySize);
+            if (((next - home) & tableMask) >= ((next - hole) & tableMask)) {
+                for (int b = 0; b < entrySize; b += 4) {
+                    buffer.putInt(table + hole * entrySize + b, buffer.getInt(table + next * entrySize + b));
+                }
+                hole = next;
+            }
+        }
+        buffer.putInt(table + hole * entrySize + entrySize - 4, 0);
+    }
+
+    private int homeOf(int table, int entry) {
+        if (table == idTable) return idHome(buffer.getLong(entry));
+
+        return ibanHome(buffer.getLong(entry), buffer.getLong(entry + 8));
+    }
+
+    private int idHome(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 29)) & tableMask;
+    }
+
+    private int ibanHome(long high, long low) {
+        long h = (high * 0x9E3779B97F4A7C15L) ^ low;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29)) & tableMask;
+    }
+}
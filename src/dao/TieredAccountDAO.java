@@ -0,0 +1,591 @@
+package dao;
+
+import codec.AccountView;
+import model.Account;
+import model.IbanCodec;
+import model.User;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Account store that keeps only the recently used accounts on the heap.
+ * <p>
+ * Every account is written through to a memory-mapped {@link SlotFile},
+ * which also holds the id and iban indexes, so evicting an account from
+ * the heap costs nothing and an evicted account is decoded back from its
+ * slot the next time it is used. The heap therefore holds at most
+ * {@code hotCapacity} accounts whatever the size of the store. Accounts
+ * must be changed through {@link #update} or {@link #patch}; changes made
+ * directly to a returned account are not stored.
+ * <p>
+ * Lookups by holder and prefix searches scan the records in place instead
+ * of keeping heap indexes over all the accounts, so the holder and prefix
+ * indexes are never ready. Opening a snapshot copies the accounts to the
+ * heap for as long as it is open.
+ * <p>
+ * The file does not grow: its capacity is fixed when it is created, and
+ * storing an account beyond it fails with an {@link IllegalStateException}.
+ * A store that needs more room must be exported and imported into a new
+ * file.
+ */
+public class TieredAccountDAO implements IAccountDAO, AutoCloseable {
+    private static final int DEFAULT_SLOT_SIZE = 256;
+
+    private final LinkedHashMap<Long, Account> hot;
+    private final SlotFile store;
+    private final ChangePublisher changes = new ChangePublisher();
+    private long sequence;
+    private long faults;
+
+    /**
+     * Opens a tiered store, creating its file if needed.
+     *
+     * @param file
+     *              the file of the store.
+     * @param capacity
+     *              the most accounts a new file can hold; an existing file
+     *              keeps the capacity it was created with.
+     * @param hotCapacity
+     *              the most accounts kept on the heap.
+     */
+    public TieredAccountDAO(Path file, int capacity, int hotCapacity) {
+        this(file, capacity, hotCapacity, DEFAULT_SLOT_SIZE);
+    }
+
+    /**
+     * Opens a tiered store, creating its file if needed.
+     *
+     * @param file
+     *              the file of the store.
+     * @param capacity
+     *              the most accounts a new file can hold; an existing file
+     *              keeps the capacity it was created with.
+     * @param hotCapacity
+     *              the most accounts kept on the heap.
+     * @param slotSize
+     *              the size in bytes of the slot of each account in a new file.
+     */
+    public TieredAccountDAO(Path file, int capacity, int hotCapacity, int slotSize) {
+        if (hotCapacity < 1) throw new IllegalArgumentException("hotCapacity must be positive: " + hotCapacity);
+
+        this.store = SlotFile.open(file, capacity, slotSize);
+        this.hot = new LinkedHashMap<Long, Account>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Account> eldest) {
+                return size() > hotCapacity;
+            }
+        };
+    }
+
+    /**
+     * Inserts a new account into the store. An account whose id or iban
+     * already exists is not inserted.
+     *
+     * @param account
+     *               the account to be inserted.
+     * @return
+     *               the inserted account, or {@code null} if it is a duplicate.
+     */
+    @Override
+    public Account insert(Account account) {
+        if (account == null) return null;
+        synchronized (hot) {
+            if (store.slotOf(account.getId()) != -1 || store.slotOfIban(account.getIban()) != -1) return null;
+
+            store.put(account);
+            cache(account);
+            publish(AccountChange.Type.INSERT, account);
+        }
+        return account;
+    }
+
+    /**
+     * Inserts a batch of accounts under a single lock acquisition, without
+     * loading them into the heap. Accounts whose id or iban already exists
+     * are not inserted.
+     *
+     * @param batch
+     *               the accounts to be inserted.
+     * @return
+     *               the accounts that were rejected as duplicates.
+     */
+    @Override
+    public List<Account> insertAll(List<Account> batch) {
+        List<Account> rejected = new ArrayList<>();
+        synchronized (hot) {
+            for (Account account : batch) {
+                if (store.slotOf(account.getId()) != -1 || store.slotOfIban(account.getIban()) != -1) {
+                    rejected.add(account);
+                    continue;
+                }
+                store.put(account);
+                publish(AccountChange.Type.INSERT, account);
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Updates an existing account of the store. The new account keeps the
+     * batch stamp of the one it replaces.
+     *
+     * @param id
+     *              the id to be updated.
+     * @param account
+     *              the account to be updated.
+     * @return
+     *              the previous account, or {@code null} if not found.
+     * @throws IllegalStateException
+     *              if the account moves to an id that already exists.
+     */
+    @Override
+    public Account update(long id, Account account) {
+        synchronized (hot) {
+            Account previous = load(id);
+            if (previous == null) return null;
+            if (id != account.getId() && store.slotOf(account.getId()) != -1) {
+                throw new IllegalStateException("An account with the id " + account.getId() + " already exists");
+            }
+
+            account.setBatchStamp(previous.getBatchStamp());
+            if (id != account.getId()) {
+                store.remove(id);
+                hot.remove(id);
+                publishDelete(id);
+            }
+            store.put(account);
+            cache(account);
+            publish(id == account.getId() ? AccountChange.Type.UPDATE : AccountChange.Type.INSERT, account);
+            return previous;
+        }
+    }
+
+    /**
+     * Changes an account in place, faulting it in if it is cold, and writes
+     * it back to its slot. If the changed account cannot be stored it is
+     * dropped from the heap, so the next read sees the stored state. A patch
+     * that leaves the account as it was is neither written nor published.
+     *
+     * @param id
+     *              the id of the account.
+     * @param iban
+     *              the new iban, or {@code null} to keep the current one.
+     * @param changes
+     *              the changes to the other fields of the account.
+     * @return
+     *              the outcome of the patch.
+     */
+    @Override
+    public PatchStatus patch(long id, String iban, Consumer<? super Account> changes) {
+        synchronized (hot) {
+            Account account = load(id);
+            if (account == null) return PatchStatus.NOT_FOUND;
+
+            if (iban != null && !IbanCodec.sameIban(iban, account.getIban()) && store.slotOfIban(iban) != -1) {
+                return PatchStatus.IBAN_TAKEN;
+            }
+            String previousIban = account.getIban();
+            User previousHolder = account.getHolder();
+            double previousBalance = account.getBalance();
+            long previousStamp = account.getBatchStamp();
+            try {
+                if (iban != null) account.setIban(iban);
+                changes.accept(account);
+                if (account.getHolder() == previousHolder && Objects.equals(account.getIban(), previousIban)
+                        && Double.compare(account.getBalance(), previousBalance) == 0) {
+                    // A batch job that left the balance as it was still stamps the account.
+                    if (account.getBatchStamp() != previousStamp) store.put(account);
+                    return PatchStatus.UNCHANGED;
+                }
+                store.put(account);
+            } catch (RuntimeException e) {
+                hot.remove(id);
+                throw e;
+            }
+            publish(AccountChange.Type.UPDATE, account);
+            return PatchStatus.APPLIED;
+        }
+    }
+
+    /**
+     * Deletes the account from the store by id.
+     *
+     * @param id
+     *              the id of the account holder.
+     */
+    @Override
+    public void delete(long id) {
+        synchronized (hot) {
+            hot.remove(id);
+            if (store.remove(id)) publishDelete(id);
+        }
+    }
+
+    /**
+     * Gets the account by id, faulting it in if it is cold.
+     *
+     * @param id
+     *              the id of the account holder.
+     * @return
+     *              the account.
+     */
+    @Override
+    public Account get(long id) {
+        synchronized (hot) {
+            return load(id);
+        }
+    }
+
+    /**
+     * Gets all the accounts, without loading the cold ones into the heap cache.
+     *
+     * @return
+     *              a new list with all the accounts.
+     */
+    @Override
+    public List<Account> getAll() {
+        return scan(view -> true);
+    }
+
+    /**
+     * Gets an account by iban through the on-disk index.
+     *
+     * @param iban
+     *              the iban of the account.
+     * @return
+     *              the account.
+     */
+    @Override
+    public Account get(String iban) {
+        synchronized (hot) {
+            int slot = store.slotOfIban(iban);
+            return slot == -1 ? null : load(store.idAt(slot));
+        }
+    }
+
+    /**
+     * Deletes an account by iban.
+     *
+     * @param iban
+     *              the iban of the account.
+     */
+    @Override
+    public void delete(String iban) {
+        synchronized (hot) {
+            int slot = store.slotOfIban(iban);
+            if (slot != -1) delete(store.idAt(slot));
+        }
+    }
+
+    @Override
+    public boolean ibanExists(String iban) {
+        synchronized (hot) {
+            return store.slotOfIban(iban) != -1;
+        }
+    }
+
+    @Override
+    public boolean userIdExists(long id) {
+        synchronized (hot) {
+            return store.slotOf(id) != -1;
+        }
+    }
+
+    @Override
+    public List<Account> getByHolderId(long holderId) {
+        return byId(scan(view -> view.getHolderId() == holderId));
+    }
+
+    @Override
+    public List<Account> getBySsn(String ssn) {
+        if (ssn == null) return new ArrayList<>();
+
+        return byId(scan(view -> view.ssnMatches(ssn)));
+    }
+
+    @Override
+    public List<Account> getByLastname(String lastname) {
+        if (lastname == null) return new ArrayList<>();
+
+        return byId(scan(view -> view.getLastname() != null && lastname.contentEquals(view.getLastname())));
+    }
+
+    @Override
+    public List<Account> searchByIban(String prefix, int limit) {
+        return search(IbanCodec.normalize(prefix), limit, AccountView::getIban, account -> IbanCodec.normalize(account.getIban()));
+    }
+
+    @Override
+    public List<Account> searchByLastname(String prefix, int limit) {
+        return search(prefix.toUpperCase(), limit, AccountView::getLastname, account -> account.getHolder().getLastname().toUpperCase());
+    }
+
+    @Override
+    public List<Account> searchByFirstname(String prefix, int limit) {
+        return search(prefix.toUpperCase(), limit, AccountView::getFirstname, account -> account.getHolder().getFirstname().toUpperCase());
+    }
+
+    /**
+     * Tells if a secondary index is ready. Only the iban index is: it is
+     * kept on disk, while the holder and prefix queries scan the records.
+     *
+     * @param index
+     *              the index.
+     * @return
+     *              true for the iban index, false otherwise.
+     */
+    @Override
+    public boolean isIndexReady(SecondaryIndex index) {
+        return index == SecondaryIndex.IBAN;
+    }
+
+    /**
+     * Gets the balance of an account in place from its slot, without
+     * faulting the account in.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the balance, or {@link Double#NaN} if the account does not exist.
+     */
+    @Override
+    public double balanceOf(long id) {
+        synchronized (hot) {
+            int slot = store.slotOf(id);
+            return slot == -1 ? Double.NaN : store.balanceAt(slot);
+        }
+    }
+
+    /**
+     * Gets the stored state of an account as a version, decoded from its
+     * slot under the store lock. The store keeps no versions, so the
+     * version number is always 0.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the version, or {@code null} if the account does not exist.
+     */
+    @Override
+    public AccountVersion latestVersion(long id) {
+        Account account;
+        synchronized (hot) {
+            int slot = store.slotOf(id);
+            if (slot == -1) return null;
+
+            account = store.read(slot);
+        }
+        return new AccountVersion(id, account.getHolder(), account.getIban(), account.getBalance(), 0L, false, null);
+    }
+
+    /**
+     * Passes the id and balance of every account to an action, read in
+     * place from the slots under the store lock.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    @Override
+    public void forEachBalance(BalanceConsumer action) {
+        synchronized (hot) {
+            store.forEach(view -> action.accept(view.getId(), view.getBalance()));
+        }
+    }
+
+    /**
+     * Passes a flyweight over the record of every account to an action,
+     * under the store lock. The flyweight moves to the next record after
+     * each call.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    @Override
+    public void forEachProjection(Consumer<? super AccountProjection> action) {
+        RecordProjection projection = new RecordProjection();
+        synchronized (hot) {
+            store.forEach(view -> {
+                projection.view = view;
+                action.accept(projection);
+            });
+        }
+    }
+
+    /**
+     * Opens a consistent snapshot of all the accounts, copied from the store.
+     *
+     * @return
+     *              the snapshot, to be closed after use.
+     */
+    @Override
+    public AccountSnapshot openSnapshot() {
+        AccountVersions versions = new AccountVersions();
+        synchronized (hot) {
+            store.forEach(view -> versions.commit(view.toAccount()));
+            return versions.open();
+        }
+    }
+
+    @Override
+    public ChangePublisher changes() {
+        return changes;
+    }
+
+    /**
+     * Returns how many times a cold account was read back from the file.
+     *
+     * @return
+     *              the number of faults.
+     */
+    public long getFaults() {
+        synchronized (hot) {
+            return faults;
+        }
+    }
+
+    /**
+     * Forces the stored accounts to the storage device.
+     */
+    public void flush() {
+        synchronized (hot) {
+            store.flush();
+        }
+    }
+
+    /**
+     * Flushes and closes the file and completes the change subscribers.
+     */
+    @Override
+    public void close() {
+        synchronized (hot) {
+            store.close();
+            hot.clear();
+        }
+        changes.close();
+    }
+
+    /**
+     * Gets an account from the heap, or decodes it from its slot, and makes
+     * it the most recently used. Must be called under the store lock.
+     */
+    private Account load(long id) {
+        Account account = hot.get(id);
+        if (account == null) {
+            int slot = store.slotOf(id);
+            if (slot == -1) return null;
+
+            account = store.read(slot);
+            faults++;
+        }
+        cache(account);
+        return account;
+    }
+
+    /**
+     * Makes an account the most recently used one on the heap, evicting the
+     * least recently used one if the heap is full. The heap map keeps its
+     * entries in the order they were cached, so looking an account up does
+     * not reorder it. Must be called under the store lock.
+     */
+    private void cache(Account account) {
+        hot.remove(account.getId());
+        hot.put(account.getId(), account);
+    }
+
+    /**
+     * Collects the accounts whose record passes a filter, in slot order.
+     * Accounts on the heap are returned as they are; the others are decoded
+     * without being cached, so scans do not flush the working set.
+     */
+    private List<Account> scan(Predicate<AccountView> filter) {
+        List<Account> result = new ArrayList<>();
+        synchronized (hot) {
+            store.forEach(view -> {
+                if (!filter.test(view)) return;
+
+                Account account = hot.get(view.getId());
+                result.add(account != null ? account : view.toAccount());
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Collects the first accounts whose key starts with a prefix, in key order.
+     */
+    private List<Account> search(String prefix, int limit, Function<AccountView, CharSequence> key,
+                                 Function<Account, String> sortKey) {
+        if (prefix == null || limit <= 0) return new ArrayList<>();
+
+        List<Account> result = scan(view -> startsWith(key.apply(view), prefix));
+        result.sort(Comparator.comparing(sortKey).thenComparingLong(Account::getId));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private static boolean startsWith(CharSequence key, String prefix) {
+        if (key == null || key.length() < prefix.length()) return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toUpperCase(key.charAt(i)) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static List<Account> byId(List<Account> accounts) {
+        accounts.sort(Comparator.comparingLong(Account::getId));
+        return accounts;
+    }
+
+    /**
+     * Publishes the new state of an account, if anyone subscribed.
+     * Must be called under the store lock, right after the change is stored.
+     */
+    private void publish(AccountChange.Type type, Account account) {
+        if (!changes.hasSubscribers()) return;
+
+        changes.publish(new AccountChange(++sequence, System.nanoTime(), type, account.getId(),
+                account.getHolder(), account.getIban(), account.getBalance()));
+    }
+
+    private void publishDelete(long id) {
+        if (!changes.hasSubscribers()) return;
+
+        changes.publish(new AccountChange(++sequence, System.nanoTime(), AccountChange.Type.DELETE, id, null, null, 0.0));
+    }
+
+    /**
+     * Projection over the record a slot view points at.
+     */
+    private static final class RecordProjection implements AccountProjection {
+        private AccountView view;
+
+        @Override
+        public long getId() {
+            return view.getId();
+        }
+
+        @Override
+        public double getBalance() {
+            return view.getBalance();
+        }
+
+        @Override
+        public CharSequence getIban() {
+            return view.getIban();
+        }
+
+        @Override
+        public long getHolderId() {
+            return view.getHolderId();
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package dto;
 
-public class AccountDTO {
+import java.io.Serializable;
+
+public class AccountDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private long id;
     private UserDTO user;
     private String iban;
@@ -0,0 +1,97 @@
+package dto;
+
+/**
+ * The changes to be applied to an existing account.
+ * Only the fields that have been set are changed.
+ */
+public class AccountPatch {
+    private static final int IBAN = 1;
+    private static final int BALANCE = 1 << 1;
+    private static final int FIRSTNAME = 1 << 2;
+    private static final int LASTNAME = 1 << 3;
+    private static final int SSN = 1 << 4;
+
+    private int changed;
+    private String iban;
+    private double balance;
+    private String firstname;
+    private String lastname;
+    private String ssn;
+
+    public AccountPatch() {}
+
+    public boolean hasIban() {
+        return (changed & IBAN) != 0;
+    }
+
+    public String getIban() {
+        return iban;
+    }
+
+    public void setIban(String iban) {
+        this.iban = iban;
+        changed |= IBAN;
+    }
+
+    public boolean hasBalance() {
+        return (changed & BALANCE) != 0;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    public void setBalance(double balance) {
+        this.balance = balance;
+        changed |= BALANCE;
+    }
+
+    public boolean hasFirstname() {
+        return (changed & FIRSTNAME) != 0;
+    }
+
+    public String getFirstname() {
+        return firstname;
+    }
+
+    public void setFirstname(String firstname) {
+        this.firstname = firstname;
+        changed |= FIRSTNAME;
+    }
+
+    public boolean hasLastname() {
+        return (changed & LASTNAME) != 0;
+    }
+
+    public String getLastname() {
+        return lastname;
+    }
+
+    public void setLastname(String lastname) {
+        this.lastname = lastname;
+        changed |= LASTNAME;
+    }
+
+    public boolean hasSsn() {
+        return (changed & SSN) != 0;
+    }
+
+    public String getSsn() {
+        return ssn;
+    }
+
+    public void setSsn(String ssn) {
+        this.ssn = ssn;
+        changed |= SSN;
+    }
+
+    /**
+     * Checks if the patch changes any field.
+     *
+     * @return
+     *              true if no field has been set, false otherwise.
+     */
+    public boolean isEmpty() {
+        return changed == 0;
+    }
+}
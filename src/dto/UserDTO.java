@@ -1,6 +1,10 @@
 package dto;
 
-public class UserDTO {
+import java.io.Serializable;
+
+public class UserDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private long id;
     private String firstname;
     private String lastname;
@@ -4,6 +4,7 @@ public class Account extends AbstractEntity{
     private User holder = new User();
     private String iban;
     private double balance;
+    private long batchStamp;
 
     public Account() {}
 
@@ -37,6 +38,22 @@ public class Account extends AbstractEntity{
         this.balance = balance;
     }
 
+    /**
+     * Returns the stamp of the last batch job that changed the account. It
+     * is kept with the balance, so a job can tell whether it already got to
+     * the account, but it is not part of the account's value.
+     *
+     * @return
+     *              the stamp, or 0 if no job changed the account.
+     */
+    public long getBatchStamp() {
+        return batchStamp;
+    }
+
+    public void setBatchStamp(long batchStamp) {
+        this.batchStamp = batchStamp;
+    }
+
     @Override
     public String toString() {
         return "Account{" +
@@ -71,8 +88,8 @@ public class Account extends AbstractEntity{
 
     public boolean isSsnValid(String ssn){
 
-        if (ssn == null || holder.getSsn() == null) return false;
+        if (ssn == null || holder == null) return false;
 
-        return holder.getSsn().equals(ssn);
+        return holder.ssnMatches(ssn);
     }
 }
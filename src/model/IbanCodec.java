@@ -0,0 +1,210 @@
+package model;
+
+/**
+ * Validation, canonicalization and primitive keys for IBANs.
+ * <p>
+ * All the methods ignore spaces and letter case and read the characters in
+ * place, so none of them allocates. The canonical form of an IBAN has no
+ * spaces and upper case letters.
+ * <p>
+ * The key of an IBAN is two longs. Canonical IBANs of up to 24 characters are
+ * packed exactly, twelve base-37 digits per long, so equal keys mean equal
+ * IBANs. Longer IBANs get a 127-bit hash with the sign bit of the high half
+ * set, and matching keys must be confirmed with {@link #sameIban}.
+ */
+public final class IbanCodec {
+    private static final int MIN_LENGTH = 15;
+    private static final int MAX_LENGTH = 34;
+    private static final int EXACT_LENGTH = 24;
+    private static final int DIGITS_PER_LONG = 12;
+    private static final long RADIX = 37;
+
+    private IbanCodec() {}
+
+    /**
+     * Checks the format and the mod-97 checksum of an IBAN.
+     *
+     * @param iban
+     *              the iban to be checked.
+     * @return
+     *              true if the iban is valid, false otherwise.
+     */
+    public static boolean isValid(CharSequence iban) {
+        if (iban == null) return false;
+
+        int length = canonicalLength(iban);
+        if (length < MIN_LENGTH || length > MAX_LENGTH) return false;
+
+        int remainder = 0;
+        int rotated = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int position = 0;
+            for (int i = 0; i < iban.length(); i++) {
+                char c = iban.charAt(i);
+                if (c == ' ') continue;
+
+                int value = digitValue(c);
+                if (value < 0) return false;
+                if (position < 2 && value < 10) return false;
+                if (position >= 2 && position < 4 && value >= 10) return false;
+
+                boolean checkPart = position < 4;
+                position++;
+                if (checkPart != (pass == 1)) continue;
+
+                remainder = value < 10 ? (remainder * 10 + value) % 97 : (remainder * 100 + value) % 97;
+                rotated++;
+            }
+        }
+        return rotated == length && remainder == 1;
+    }
+
+    /**
+     * Returns the canonical form of an IBAN.
+     *
+     * @param iban
+     *              the iban to be canonicalized.
+     * @return
+     *              the canonical iban, the same instance if it is already canonical.
+     */
+    public static String normalize(String iban) {
+        if (iban == null || isCanonical(iban)) return iban;
+
+        StringBuilder sb = new StringBuilder(iban.length());
+        for (int i = 0; i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (c != ' ') sb.append(Character.toUpperCase(c));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks if two IBANs have the same canonical form.
+     *
+     * @param a
+     *              the first iban.
+     * @param b
+     *              the second iban.
+     * @return
+     *              true if they are the same iban, false otherwise.
+     */
+    public static boolean sameIban(CharSequence a, CharSequence b) {
+        if (a == null || b == null) return a == b;
+
+        int i = 0;
+        int j = 0;
+        while (true) {
+            while (i < a.length() && a.charAt(i) == ' ') i++;
+            while (j < b.length() && b.charAt(j) == ' ') j++;
+            if (i == a.length() || j == b.length()) return i == a.length() && j == b.length();
+            if (Character.toUpperCase(a.charAt(i++)) != Character.toUpperCase(b.charAt(j++))) return false;
+        }
+    }
+
+    /**
+     * Computes the high half of the key of an IBAN.
+     *
+     * @param iban
+     *              the iban.
+     * @return
+     *              the high 64 bits of the key.
+     */
+    public static long keyHigh(CharSequence iban) {
+        int length = canonicalLength(iban);
+        if (!isPackable(iban, length)) return hash(iban, 0x9E3779B97F4A7C15L) | Long.MIN_VALUE;
+
+        return pack(iban, 0, length - DIGITS_PER_LONG);
+    }
+
+    /**
+     * Computes the low half of the key of an IBAN.
+     *
+     * @param iban
+     *              the iban.
+     * @return
+     *              the low 64 bits of the key.
+     */
+    public static long keyLow(CharSequence iban) {
+        int length = canonicalLength(iban);
+        if (!isPackable(iban, length)) return hash(iban, 0xC2B2AE3D27D4EB4FL);
+
+        return pack(iban, Math.max(0, length - DIGITS_PER_LONG), length);
+    }
+
+    /**
+     * Checks if a key identifies its IBAN exactly.
+     *
+     * @param keyHigh
+     *              the high half of the key.
+     * @return
+     *              true if the key is exact, false if it is a hash.
+     */
+    public static boolean isExactKey(long keyHigh) {
+        return keyHigh >= 0;
+    }
+
+    private static boolean isCanonical(String iban) {
+        for (int i = 0; i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (c == ' ' || (c >= 'a' && c <= 'z')) return false;
+        }
+        return true;
+    }
+
+    private static int canonicalLength(CharSequence iban) {
+        int length = 0;
+        for (int i = 0; i < iban.length(); i++) {
+            if (iban.charAt(i) != ' ') length++;
+        }
+        return length;
+    }
+
+    private static boolean isPackable(CharSequence iban, int length) {
+        if (length > EXACT_LENGTH) return false;
+
+        for (int i = 0; i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (c != ' ' && digitValue(c) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Packs the canonical characters in positions [from, to) as a base-37
+     * number whose digits are 1 to 36, so that no two strings collide.
+     */
+    private static long pack(CharSequence iban, int from, int to) {
+        long key = 0;
+        int position = 0;
+        for (int i = 0; i < iban.length() && position < to; i++) {
+            char c = iban.charAt(i);
+            if (c == ' ') continue;
+            if (position++ >= from) key = key * RADIX + digitValue(c) + 1;
+        }
+        return key;
+    }
+
+    private static long hash(CharSequence iban, long seed) {
+        long h = seed;
+        for (int i = 0; i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (c == ' ') continue;
+            h = (h ^ Character.toUpperCase(c)) * seed;
+            h ^= h >>> 29;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Returns 0 to 9 for digits, 10 to 35 for letters of any case, -1 otherwise.
+     */
+    private static int digitValue(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'Z') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'z') return c - 'a' + 10;
+        return -1;
+    }
+}
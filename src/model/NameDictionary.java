@@ -0,0 +1,76 @@
+package model;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * Dictionary of holder names shared by all the users.
+ * <p>
+ * Equal names are stored once and every user references the same canonical
+ * instance. Names made of Latin-1 characters are kept by the JVM as one byte
+ * per character, so the dictionary holds them in their most compact form.
+ * The dictionary only holds its names weakly: a name no user references any
+ * more, e.g. of a deleted holder or of a rejected import row, is dropped by
+ * the next garbage collection. The names are spread over striped maps, so
+ * concurrent interning rarely contends.
+ */
+public final class NameDictionary {
+    private static final int STRIPES = 16;
+
+    private static final List<WeakHashMap<String, WeakReference<String>>> names = new ArrayList<>(STRIPES);
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            names.add(new WeakHashMap<>());
+        }
+    }
+
+    private NameDictionary() {}
+
+    /**
+     * Returns the canonical instance of a name, adding it to the dictionary
+     * if it is not there yet.
+     *
+     * @param name
+     *              the name to be interned.
+     * @return
+     *              the canonical name, or {@code null} if the name is null.
+     */
+    public static String intern(String name) {
+        if (name == null) return null;
+
+        WeakHashMap<String, WeakReference<String>> stripe = stripeOf(name);
+        synchronized (stripe) {
+            WeakReference<String> ref = stripe.get(name);
+            String canonical = ref == null ? null : ref.get();
+            if (canonical != null) return canonical;
+
+            stripe.put(name, new WeakReference<>(name));
+            return name;
+        }
+    }
+
+    /**
+     * Returns the number of distinct names in the dictionary, including
+     * names that are no longer referenced but not yet collected.
+     *
+     * @return
+     *              the number of names.
+     */
+    public static int size() {
+        int size = 0;
+        for (WeakHashMap<String, WeakReference<String>> stripe : names) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private static WeakHashMap<String, WeakReference<String>> stripeOf(String name) {
+        int h = name.hashCode();
+        return names.get((h ^ (h >>> 16)) & (STRIPES - 1));
+    }
+}
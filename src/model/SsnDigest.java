@@ -0,0 +1,149 @@
+package model;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Fixed-width 128-bit digest of a social security number.
+ * <p>
+ * The digest is the first 128 bits of an HMAC-SHA256 of the ssn under a
+ * secret key, held as two longs so that verification is a primitive compare.
+ * Without the key, a digest found in a store file or an export cannot be
+ * brute-forced back to its ssn. The key must be set with {@link #setKey}
+ * before any ssn is digested, and must be the same for every process that
+ * reads the same stores or exports; until it is set, a random key is used,
+ * so digests are only valid for the life of the JVM.
+ */
+public final class SsnDigest {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static volatile SecretKeySpec key = randomKey();
+
+    private static final ThreadLocal<Hmac> hmacs = ThreadLocal.withInitial(Hmac::new);
+
+    private SsnDigest() {}
+
+    /**
+     * Sets the secret key of the digests.
+     *
+     * @param secret
+     *              the key, at least 16 bytes.
+     */
+    public static void setKey(byte[] secret) {
+        if (secret == null || secret.length < 16) throw new IllegalArgumentException("The key must have at least 16 bytes");
+
+        key = new SecretKeySpec(Arrays.copyOf(secret, secret.length), ALGORITHM);
+    }
+
+    /**
+     * Computes the high half of the digest.
+     *
+     * @param ssn
+     *              the ssn.
+     * @return
+     *              the high 64 bits of the digest.
+     */
+    public static long high(CharSequence ssn) {
+        return hmacs.get().digest(ssn).high;
+    }
+
+    /**
+     * Computes the low half of the digest.
+     *
+     * @param ssn
+     *              the ssn.
+     * @return
+     *              the low 64 bits of the digest.
+     */
+    public static long low(CharSequence ssn) {
+        return hmacs.get().digest(ssn).low;
+    }
+
+    /**
+     * Checks if an ssn has the given digest. The comparison takes the
+     * same time whether the digest matches or not.
+     *
+     * @param high
+     *              the high half of the stored digest.
+     * @param low
+     *              the low half of the stored digest.
+     * @param ssn
+     *              the ssn to be checked.
+     * @return
+     *              true if the ssn matches, false otherwise.
+     */
+    public static boolean matches(long high, long low, CharSequence ssn) {
+        Hmac hmac = hmacs.get().digest(ssn);
+        return ((hmac.high ^ high) | (hmac.low ^ low)) == 0;
+    }
+
+    private static SecretKeySpec randomKey() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return new SecretKeySpec(secret, ALGORITHM);
+    }
+
+    /**
+     * The MAC of a thread and its last digest, so that digesting does not allocate.
+     */
+    private static final class Hmac {
+        private final Mac mac;
+        private final byte[] out;
+        private byte[] in = new byte[32];
+        private int inLength = -1;
+        private SecretKeySpec initializedWith;
+        private long high;
+        private long low;
+
+        Hmac() {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+            out = new byte[mac.getMacLength()];
+        }
+
+        Hmac digest(CharSequence ssn) {
+            try {
+                SecretKeySpec current = key;
+                int length = ssn.length() * 2;
+                if (in.length < length) in = Arrays.copyOf(in, length);
+                boolean same = current == initializedWith && length == inLength;
+                for (int i = 0; i < ssn.length(); i++) {
+                    char c = ssn.charAt(i);
+                    same &= in[2 * i] == (byte) (c >>> 8) && in[2 * i + 1] == (byte) c;
+                    in[2 * i] = (byte) (c >>> 8);
+                    in[2 * i + 1] = (byte) c;
+                }
+                // high and low of the same ssn, e.g. when a user is created, digest it once.
+                if (same) return this;
+
+                if (current != initializedWith) {
+                    mac.init(current);
+                    initializedWith = current;
+                }
+                inLength = length;
+                mac.update(in, 0, length);
+                mac.doFinal(out, 0);
+            } catch (GeneralSecurityException e) {
+                inLength = -1;
+                throw new IllegalStateException("Cannot digest an ssn", e);
+            }
+            high = toLong(out, 0);
+            low = toLong(out, 8);
+            return this;
+        }
+
+        private static long toLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[offset + i] & 0xFF);
+            }
+            return value;
+        }
+    }
+}
@@ -3,14 +3,31 @@ package model;
 public class User extends AbstractEntity {
     private String firstname;
     private String lastname;
-    private String ssn;
+    private boolean hasSsn;
+    private long ssnHigh;
+    private long ssnLow;
 
     public User() {}
 
     public User(String firstname, String lastname, String ssn) {
-        this.firstname = firstname;
-        this.lastname = lastname;
-        this.ssn = ssn;
+        setFirstname(firstname);
+        setLastname(lastname);
+        setSsn(ssn);
+    }
+
+    /**
+     * Copies a user, including the ssn digest.
+     *
+     * @param other
+     *              the user to be copied.
+     */
+    public User(User other) {
+        setId(other.getId());
+        this.firstname = other.firstname;
+        this.lastname = other.lastname;
+        this.hasSsn = other.hasSsn;
+        this.ssnHigh = other.ssnHigh;
+        this.ssnLow = other.ssnLow;
     }
 
     public String getFirstname() {
@@ -18,7 +35,7 @@ public class User extends AbstractEntity {
     }
 
     public void setFirstname(String firstname) {
-        this.firstname = firstname;
+        this.firstname = NameDictionary.intern(firstname);
     }
 
     public String getLastname() {
@@ -26,15 +43,59 @@ public class User extends AbstractEntity {
     }
 
     public void setLastname(String lastname) {
-        this.lastname = lastname;
+        this.lastname = NameDictionary.intern(lastname);
     }
 
-    public String getSsn() {
-        return ssn;
+    /**
+     * Sets the ssn of the user. Only its digest is kept.
+     *
+     * @param ssn
+     *              the ssn, or {@code null} to clear it.
+     */
+    public void setSsn(String ssn) {
+        this.hasSsn = ssn != null;
+        this.ssnHigh = hasSsn ? SsnDigest.high(ssn) : 0L;
+        this.ssnLow = hasSsn ? SsnDigest.low(ssn) : 0L;
     }
 
-    public void setSsn(String ssn) {
-        this.ssn = ssn;
+    /**
+     * Sets the ssn digest of the user directly, as read from storage.
+     *
+     * @param high
+     *              the high half of the digest.
+     * @param low
+     *              the low half of the digest.
+     */
+    public void setSsnDigest(long high, long low) {
+        this.hasSsn = true;
+        this.ssnHigh = high;
+        this.ssnLow = low;
+    }
+
+    public boolean hasSsn() {
+        return hasSsn;
+    }
+
+    public long getSsnHigh() {
+        return ssnHigh;
+    }
+
+    public long getSsnLow() {
+        return ssnLow;
+    }
+
+    /**
+     * Checks if the given ssn is the ssn of the user.
+     *
+     * @param ssn
+     *              the ssn to be checked.
+     * @return
+     *              true if the ssn matches, false otherwise.
+     */
+    public boolean ssnMatches(CharSequence ssn) {
+        if (ssn == null || !hasSsn) return false;
+
+        return SsnDigest.matches(ssnHigh, ssnLow, ssn);
     }
 
     @Override
@@ -42,7 +103,6 @@ public class User extends AbstractEntity {
         return "User{" +
                 "firstname='" + firstname + '\'' +
                 ", lastname='" + lastname + '\'' +
-                ", ssn='" + ssn + '\'' +
                 '}';
     }
 
@@ -55,15 +115,16 @@ public class User extends AbstractEntity {
 
         if (!firstname.equals(user.firstname)) return false;
         if (!lastname.equals(user.lastname)) return false;
-        return ssn.equals(user.ssn);
+        if (hasSsn != user.hasSsn) return false;
+        return ssnHigh == user.ssnHigh && ssnLow == user.ssnLow;
     }
 
     @Override
     public int hashCode() {
         int result = firstname.hashCode();
         result = 31 * result + lastname.hashCode();
-        result = 31 * result + ssn.hashCode();
+        result = 31 * result + Long.hashCode(ssnHigh);
+        result = 31 * result + Long.hashCode(ssnLow);
         return result;
     }
 }
-
@@ -1,18 +1,65 @@
 package service;
 
+import dao.AccountProjection;
+import dao.AccountSnapshot;
+import dao.AccountVersion;
+import dao.BalanceConsumer;
+import dao.ChangePublisher;
 import dao.IAccountDAO;
+import dao.PatchStatus;
+import dao.SecondaryIndex;
 import dto.AccountDTO;
+import dto.AccountPatch;
 import dto.UserDTO;
 import model.Account;
+import model.IbanCodec;
 import model.User;
 import service.exceptions.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
+/**
+ * Account service over an account store.
+ * <p>
+ * Deposits to hot accounts are held in memory, in a split balance per
+ * account, and folded into the store by the next write to the account, or
+ * by the next deposit once the account has cooled down. Reads through the
+ * service add the pending deposits to what the store holds and never write;
+ * readers that go to the store directly see them once
+ * {@link #foldPendingDeposits()} has folded them.
+ */
 public class AccountServiceImpl implements IAccountService {
+    /** The most accounts whose deposits are split at a time. */
+    private static final int MAX_SPLIT_ACCOUNTS = 1024;
+
     private final IAccountDAO dao;
+    private final HotAccountDetector hotAccounts = new HotAccountDetector(4096, 256);
+    private final Map<Long, SplitBalance> splitBalances = new ConcurrentHashMap<>();
+    /** Held shared by folds and exclusively while a snapshot sums the pending deposits. */
+    private final ReentrantReadWriteLock foldLock = new ReentrantReadWriteLock();
+    private final WithdrawalLimits limits;
+
+    public AccountServiceImpl(IAccountDAO dao) {this(dao, null);}
 
-    public AccountServiceImpl(IAccountDAO dao) {this.dao = dao;}
+    /**
+     * @param dao
+     *              the account store.
+     * @param limits
+     *              the withdrawal limits, or {@code null} for none.
+     */
+    public AccountServiceImpl(IAccountDAO dao, WithdrawalLimits limits) {
+        this.dao = dao;
+        this.limits = limits;
+    }
 
     /**
      * Inserts an account into a list.
@@ -25,12 +72,18 @@ public class AccountServiceImpl implements IAccountService {
      *                  if iban already exists.
      * @throws UserIdAlreadyExistsException
      *                  if the id already exists.
+     * @throws IbanNotValidException
+     *                  if the iban is not valid.
      */
     @Override
     public Account insertAccount(AccountDTO accountDTO) throws IbanAlreadyExistsException,
-            UserIdAlreadyExistsException {
+            UserIdAlreadyExistsException, IbanNotValidException {
         Account account = null;
         try {
+            if (!IbanCodec.isValid(accountDTO.getIban())) {
+                throw new IbanNotValidException(accountDTO.getIban());
+            }
+
             account = new Account();
             mapAccount(account,accountDTO);
             if (dao.ibanExists(accountDTO.getIban())) {
@@ -41,8 +94,14 @@ public class AccountServiceImpl implements IAccountService {
                 throw new UserIdAlreadyExistsException(account);
             }
 
-            account = dao.insert(account);
-        } catch (IbanAlreadyExistsException | UserIdAlreadyExistsException e) {
+            Account inserted = dao.insert(account);
+            if (inserted == null) {
+                // Another insert took the iban or the id since the checks above.
+                if (dao.ibanExists(accountDTO.getIban())) throw new IbanAlreadyExistsException(account);
+                throw new UserIdAlreadyExistsException(account);
+            }
+            account = inserted;
+        } catch (IbanAlreadyExistsException | UserIdAlreadyExistsException | IbanNotValidException e) {
             System.err.println("Error in insert.");
             throw e;
         }
@@ -62,12 +121,18 @@ public class AccountServiceImpl implements IAccountService {
      *                  if account to be updated not found.
      * @throws IbanAlreadyExistsException
      *                  if iban already exists.
+     * @throws IbanNotValidException
+     *                  if the iban is not valid.
      */
     @Override
     public Account updateAccount(long id, AccountDTO accountDTO)
-            throws AccountNotFoundException, IbanAlreadyExistsException {
+            throws AccountNotFoundException, IbanAlreadyExistsException, IbanNotValidException {
         Account account = null;
         try {
+            if (!IbanCodec.isValid(accountDTO.getIban())) {
+                throw new IbanNotValidException(accountDTO.getIban());
+            }
+
             account = new Account();
             mapAccount(account, accountDTO);
 
@@ -81,8 +146,9 @@ public class AccountServiceImpl implements IAccountService {
                 }
             }
 
+            reconcile(id);
             account = dao.update(id, account);
-        } catch (AccountNotFoundException | IbanAlreadyExistsException  e) {
+        } catch (AccountNotFoundException | IbanAlreadyExistsException | IbanNotValidException e) {
             System.err.println("Error in update");
             throw e;
         }
@@ -90,6 +156,57 @@ public class AccountServiceImpl implements IAccountService {
         return account;
     }
 
+    /**
+     * Patches an account in place, changing only the fields set in the patch.
+     *
+     * @param id
+     *                 the id of account to be patched.
+     * @param patch
+     *                  the fields to be changed.
+     * @return          the patched account.
+     * @throws AccountNotFoundException
+     *                  if account to be patched not found.
+     * @throws IbanAlreadyExistsException
+     *                  if the new iban belongs to another account.
+     * @throws IbanNotValidException
+     *                  if the new iban is not valid.
+     */
+    @Override
+    public Account patchAccount(long id, AccountPatch patch)
+            throws AccountNotFoundException, IbanAlreadyExistsException, IbanNotValidException {
+        Account[] patched = new Account[1];
+        try {
+            String iban = null;
+            if (patch.hasIban()) {
+                if (!IbanCodec.isValid(patch.getIban())) {
+                    throw new IbanNotValidException(patch.getIban());
+                }
+                iban = IbanCodec.normalize(patch.getIban());
+            }
+
+            SplitBalance pending = openSplitBalance(id);
+            PatchStatus status = patchFolding(id, iban, pending, account -> {
+                if (pending != null) account.setBalance(account.getBalance() + take(id, pending));
+                applyPatch(account, patch);
+                patched[0] = account;
+            });
+            if (pending != null) retire(id, pending);
+
+            if (status == PatchStatus.NOT_FOUND) {
+                throw new AccountNotFoundException(id);
+            }
+
+            if (status == PatchStatus.IBAN_TAKEN) {
+                throw new IbanAlreadyExistsException(iban);
+            }
+        } catch (AccountNotFoundException | IbanAlreadyExistsException | IbanNotValidException e) {
+            System.err.println("Error in patch");
+            throw e;
+        }
+
+        return patched[0];
+    }
+
     /**
      * Deletes an account from the list by id.
      *
@@ -107,7 +224,9 @@ public class AccountServiceImpl implements IAccountService {
                 throw new AccountNotFoundException(account);
             }
 
+            SplitBalance marker = closeSplitBalance(id);
             dao.delete(id);
+            forget(id, marker);
         } catch (AccountNotFoundException e) {
             System.err.println("Account not found");
             throw e;
@@ -130,7 +249,14 @@ public class AccountServiceImpl implements IAccountService {
                 throw new AccountNotFoundException(account);
             }
 
+            Account deleted = dao.get(iban);
+            if (deleted == null) {
+                throw new AccountNotFoundException(iban);
+            }
+
+            SplitBalance marker = closeSplitBalance(deleted.getId());
             dao.delete(iban);
+            forget(deleted.getId(), marker);
         } catch (AccountNotFoundException e) {
             System.err.println("Account not found");
             throw e;
@@ -156,7 +282,7 @@ public class AccountServiceImpl implements IAccountService {
                 throw new AccountNotFoundException(id);
             }
 
-            return account;
+            return withPending(account);
         } catch (AccountNotFoundException e) {
             System.err.println("Account not found");
             throw e;
@@ -182,7 +308,7 @@ public class AccountServiceImpl implements IAccountService {
                 throw new AccountNotFoundException(iban);
             }
 
-            return account;
+            return withPending(account);
         } catch (AccountNotFoundException e) {
             System.err.println("Account not found");
             throw e;
@@ -197,11 +323,235 @@ public class AccountServiceImpl implements IAccountService {
      */
     @Override
     public List<Account> getAllAccounts() {
-        return dao.getAll();
+        return withPending(dao.getAll());
+    }
+
+    /**
+     * Gets the accounts of a holder through the holder index.
+     *
+     * @param holderId
+     *          the id of the holder.
+     * @return
+     *          the list of accounts.
+     */
+    @Override
+    public List<Account> getAccountsByHolder(long holderId) {
+        return withPending(dao.getByHolderId(holderId));
+    }
+
+    /**
+     * Gets the accounts of a holder by ssn through the holder index.
+     *
+     * @param ssn
+     *          the ssn of the holder.
+     * @return
+     *          the list of accounts.
+     */
+    @Override
+    public List<Account> getAccountsBySsn(String ssn) {
+        return withPending(dao.getBySsn(ssn));
+    }
+
+    /**
+     * Gets the accounts of holders by last name through the holder index.
+     *
+     * @param lastname
+     *          the last name of the holders.
+     * @return
+     *          the list of accounts.
+     */
+    @Override
+    public List<Account> getAccountsByLastname(String lastname) {
+        return withPending(dao.getByLastname(lastname));
+    }
+
+    /**
+     * Searches the accounts by iban prefix through the prefix index.
+     *
+     * @param prefix
+     *          the start of the iban.
+     * @param limit
+     *          the maximum number of accounts.
+     * @return
+     *          the list of accounts.
+     */
+    @Override
+    public List<Account> searchAccountsByIban(String prefix, int limit) {
+        return withPending(dao.searchByIban(prefix, limit));
+    }
+
+    /**
+     * Searches the accounts by holder name prefix, filling up with first
+     * name matches once the last name matches run out.
+     *
+     * @param prefix
+     *          the start of the name.
+     * @param limit
+     *          the maximum number of accounts.
+     * @return
+     *          the list of accounts.
+     */
+    @Override
+    public List<Account> searchAccountsByName(String prefix, int limit) {
+        List<Account> result = withPending(dao.searchByLastname(prefix, limit));
+        if (result.size() >= limit) return result;
+
+        Set<Long> found = new HashSet<>();
+        for (Account account : result) {
+            found.add(account.getId());
+        }
+        for (Account account : dao.searchByFirstname(prefix, limit)) {
+            if (result.size() == limit) break;
+            if (found.add(account.getId())) result.add(withPending(account));
+        }
+        return result;
+    }
+
+    /**
+     * Opens a consistent snapshot of all the accounts. The balances include
+     * the pending deposits, summed while no fold can move them to the store,
+     * so each deposit is counted once.
+     *
+     * @return
+     *          the snapshot, to be closed after use.
+     */
+    @Override
+    public AccountSnapshot openSnapshot() {
+        foldLock.writeLock().lock();
+        try {
+            AccountSnapshot snapshot = dao.openSnapshot();
+            if (splitBalances.isEmpty()) return snapshot;
+
+            long[] ids = splitIds();
+            double[] amounts = new double[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                SplitBalance pending = splitBalances.get(ids[i]);
+                if (pending != null) amounts[i] = pending.sum();
+            }
+            snapshot.addToBalances(ids, amounts);
+            return snapshot;
+        } finally {
+            foldLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the publisher of the changes committed to the store,
+     * including those made through this service.
+     *
+     * @return
+     *          the change publisher.
+     */
+    @Override
+    public ChangePublisher accountChanges() {
+        return dao.changes();
+    }
+
+    /**
+     * Folds the pending deposits of every split account into the store.
+     */
+    @Override
+    public void foldPendingDeposits() {
+        reconcileAll();
+    }
+
+    /**
+     * Tells if a secondary index of the store is ready.
+     *
+     * @param index
+     *              the index.
+     * @return
+     *              true if the index is ready.
+     */
+    @Override
+    public boolean isIndexReady(SecondaryIndex index) {
+        return dao.isIndexReady(index);
+    }
+
+    /**
+     * Gets the balance of an account without returning the account. Pending
+     * deposits are added to the stored balance without folding them, so the
+     * read never writes to the store.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the balance.
+     * @throws AccountNotFoundException
+     *              if the account not found.
+     */
+    @Override
+    public double balanceOf(long id) throws AccountNotFoundException {
+        try {
+            double balance = dao.balanceOf(id);
+            if (Double.isNaN(balance)) {
+                throw new AccountNotFoundException(id);
+            }
+
+            SplitBalance pending = splitBalances.get(id);
+            return pending == null ? balance : withPending(id, balance, pending);
+        } catch (AccountNotFoundException e) {
+            System.err.println("Account not found");
+            throw e;
+        }
+    }
+
+    /**
+     * Passes the id and balance of every account to an action. Pending
+     * deposits are added to the balances passed, without folding them.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    @Override
+    public void forEachBalance(BalanceConsumer action) {
+        if (splitBalances.isEmpty()) {
+            dao.forEachBalance(action);
+            return;
+        }
+
+        long[] ids = splitIds();
+        dao.forEachBalance((id, balance) -> action.accept(id, withPending(ids, id, balance)));
+    }
+
+    /**
+     * Passes a read-only projection of every account to an action. Pending
+     * deposits are added to the balances of the projections, without
+     * folding them.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    @Override
+    public void forEachProjection(Consumer<? super AccountProjection> action) {
+        if (splitBalances.isEmpty()) {
+            dao.forEachProjection(action);
+            return;
+        }
+
+        long[] ids = splitIds();
+        PendingProjection view = new PendingProjection();
+        dao.forEachProjection(projection -> {
+            long id = projection.getId();
+            if (Arrays.binarySearch(ids, id) < 0) {
+                action.accept(projection);
+                return;
+            }
+            view.target = projection;
+            view.balance = withPending(ids, id, projection.getBalance());
+            action.accept(view);
+        });
     }
 
     /**
      * Deposits a certain amount of money to an account.
+     * <p>
+     * Deposits to a hot account go to its split balance instead of the
+     * account, so they do not contend with each other; they are folded into
+     * the balance by the next write to the account, and the split balance is
+     * dropped once the account has cooled down. A hot deposit takes no store
+     * lock where the store can avoid it: the account it returns is built from
+     * the last committed version, with the pending deposits in its balance.
      *
      * @param id
      *               the id of the account.
@@ -216,25 +566,50 @@ public class AccountServiceImpl implements IAccountService {
      */
     @Override
     public Account deposit(long id, double amount) throws  NegativeAmountException, AccountNotFoundException {
-        Account account = null;
+        Account[] deposited = new Account[1];
         try {
-            account = dao.get(id);
             if (amount < 0 ) {
                 throw new NegativeAmountException(amount);
             }
 
-            if (account == null) {
-                throw new AccountNotFoundException(account);
+            SplitBalance pending = splitBalanceOf(id);
+            if (pending != null && hotAccounts.isHot(id)) {
+                // The heap store answers latestVersion from its versions, without the store lock.
+                AccountVersion latest = dao.latestVersion(id);
+                if (latest == null) {
+                    pending.close();
+                    retire(id, pending);
+                    throw new AccountNotFoundException(id);
+                }
+
+                if (pending.add(amount)) {
+                    double balance = withPending(id, latest.getBalance(), pending);
+                    deposited[0] = new Account(latest.getHolder(), latest.getIban(), balance);
+                    deposited[0].setId(id);
+                    return deposited[0];
+                }
+                // The split balance was retired meanwhile, so deposit directly.
             }
 
-            double newBalance = account.getBalance() + amount;
-            account.setBalance(newBalance);
-            dao.update(account.getId(), account);
+            // An open split balance still here belongs to an account that has cooled down, so it is
+            // folded and dropped. A closed one is retired already or marks an account being deleted.
+            SplitBalance cooled = pending == null || pending.isClosed() ? null : pending;
+            PatchStatus status = patchFolding(id, null, cooled, account -> {
+                double balance = account.getBalance() + amount;
+                if (cooled != null) balance += take(id, cooled);
+                account.setBalance(balance);
+                deposited[0] = account;
+            });
+            if (cooled != null) retire(id, cooled);
+
+            if (status == PatchStatus.NOT_FOUND) {
+                throw new AccountNotFoundException(id);
+            }
         } catch (NegativeAmountException e) {
             System.err.println("Negative amount error");
             throw e;
         }
-        return account;
+        return deposited[0];
     }
 
     /**
@@ -255,29 +630,284 @@ public class AccountServiceImpl implements IAccountService {
      *              if account not found.
      * @throws SsnNotValidException
      *              if ssn is not valid.
+     * @throws WithdrawalLimitExceededException
+     *              if the withdrawal exceeds a limit of the account.
      */
     @Override
-    public Account withdraw(long id, String ssn, double amount)
-            throws NegativeAmountException, InsufficientBalanceException, AccountNotFoundException, SsnNotValidException {
-        Account account = null;
+    public Account withdraw(long id, String ssn, double amount) throws NegativeAmountException,
+            InsufficientBalanceException, AccountNotFoundException, SsnNotValidException, WithdrawalLimitExceededException {
+        Account[] withdrawn = new Account[1];
         try {
-            account = dao.get(id);
+            Account account = dao.get(id);
 
+            if (account == null) throw new AccountNotFoundException(id);
             if (!account.isSsnValid(ssn)) throw new SsnNotValidException(ssn);
             if (amount < 0) throw new NegativeAmountException(amount);
-            if (account == null) throw new AccountNotFoundException(id);
-            if (amount > account.getBalance()) throw new InsufficientBalanceException(account.getBalance(), amount);
 
-            double newBalance = account.getBalance() - amount;
-            account.setBalance(newBalance);
-            dao.update(account.getId(), account);
+            // The pending deposits are folded in first, and the balance and the limits
+            // are checked under the same patch as the withdrawal.
+            SplitBalance pending = openSplitBalance(id);
+            double[] shortfall = {Double.NaN};
+            WithdrawalLimits.Limit[] exceeded = new WithdrawalLimits.Limit[1];
+            PatchStatus status = patchFolding(id, null, pending, current -> {
+                double balance = current.getBalance();
+                if (pending != null) balance += take(id, pending);
+                current.setBalance(balance);
+                if (amount > balance) {
+                    shortfall[0] = balance;
+                    return;
+                }
+                exceeded[0] = limits == null ? null : limits.tryWithdraw(id, amount);
+                if (exceeded[0] != null) return;
+
+                current.setBalance(balance - amount);
+                withdrawn[0] = current;
+            });
+
+            if (pending != null) retire(id, pending);
+            if (status == PatchStatus.NOT_FOUND) throw new AccountNotFoundException(id);
+            if (!Double.isNaN(shortfall[0])) throw new InsufficientBalanceException(shortfall[0], amount);
+            if (exceeded[0] != null) throw new WithdrawalLimitExceededException(id, exceeded[0], amount);
 
         } catch (NegativeAmountException | InsufficientBalanceException |
-                 AccountNotFoundException | SsnNotValidException e) {
+                 AccountNotFoundException | SsnNotValidException | WithdrawalLimitExceededException e) {
             System.err.println("Error in withdrawal");
             throw e;
         }
-        return account;
+        return withdrawn[0];
+    }
+
+    /**
+     * Returns the split balance of an account, unless it has none or only
+     * the closed marker of an account being deleted, which must stay until
+     * the delete drops it.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the open split balance, or null.
+     */
+    private SplitBalance openSplitBalance(long id) {
+        SplitBalance pending = splitBalances.get(id);
+        return pending == null || pending.isClosed() ? null : pending;
+    }
+
+    /**
+     * Returns the split balance taking the deposits of an account, if the
+     * account is hot and there is room for another one.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the split balance, or null to deposit directly.
+     */
+    private SplitBalance splitBalanceOf(long id) {
+        SplitBalance pending = splitBalances.get(id);
+        if (pending != null || !hotAccounts.recordAndCheck(id)) return pending;
+        if (splitBalances.size() >= MAX_SPLIT_ACCOUNTS) {
+            // Make room by folding the accounts that have cooled down.
+            for (Long cooled : splitBalances.keySet()) {
+                if (!hotAccounts.isHot(cooled)) reconcile(cooled);
+            }
+            if (splitBalances.size() >= MAX_SPLIT_ACCOUNTS) return null;
+        }
+
+        return splitBalances.computeIfAbsent(id, key -> new SplitBalance());
+    }
+
+    /**
+     * Closes the split balance of an account about to be deleted and folds
+     * its pending deposits into the balance, so the last version of the
+     * account holds every deposit that succeeded. A closed marker takes the
+     * place of the split balance until the account is deleted, so deposits
+     * meanwhile go straight to the store and fail once the account is gone.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the marker, to be dropped once the account is deleted.
+     */
+    private SplitBalance closeSplitBalance(long id) {
+        SplitBalance marker = new SplitBalance();
+        marker.close();
+        SplitBalance pending = splitBalances.put(id, marker);
+        if (pending != null) {
+            patchFolding(id, null, pending, account -> account.setBalance(account.getBalance() + pending.close()));
+        }
+        return marker;
+    }
+
+    /**
+     * Drops the split balance marker and the withdrawal history of a deleted account.
+     *
+     * @param id
+     *              the id of the account.
+     * @param marker
+     *              the marker left by {@link #closeSplitBalance}.
+     */
+    private void forget(long id, SplitBalance marker) {
+        splitBalances.remove(id, marker);
+        if (limits != null) limits.forget(id);
+    }
+
+    /**
+     * Folds the pending deposits of an account into its balance, and retires
+     * its split balance once the account has cooled down.
+     *
+     * @param id
+     *              the id of the account.
+     */
+    private void reconcile(long id) {
+        SplitBalance pending = openSplitBalance(id);
+        if (pending == null || (pending.isEmpty() && hotAccounts.isHot(id))) return;
+
+        patchFolding(id, null, pending, account -> account.setBalance(account.getBalance() + take(id, pending)));
+        retire(id, pending);
+    }
+
+    /**
+     * Patches an account, holding the fold lock shared if the account has a
+     * split balance whose deposits the changes may fold into the store.
+     *
+     * @param id
+     *              the id of the account.
+     * @param iban
+     *              the new iban, or {@code null} to keep the current one.
+     * @param pending
+     *              the split balance of the account, or {@code null}.
+     * @param changes
+     *              the changes to the account.
+     * @return
+     *              the outcome of the patch.
+     */
+    private PatchStatus patchFolding(long id, String iban, SplitBalance pending, Consumer<? super Account> changes) {
+        if (pending == null) return dao.patch(id, iban, changes);
+
+        foldLock.readLock().lock();
+        try {
+            return dao.patch(id, iban, changes);
+        } finally {
+            foldLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the pending deposits of an account, closing its split balance if
+     * the account is no longer hot. Called inside the patch that folds them.
+     *
+     * @param id
+     *              the id of the account.
+     * @param pending
+     *              the split balance of the account.
+     * @return
+     *              the sum of the deposits taken.
+     */
+    private double take(long id, SplitBalance pending) {
+        return hotAccounts.isHot(id) ? pending.drain() : pending.close();
+    }
+
+    /**
+     * Drops a closed split balance, unless it was already replaced.
+     *
+     * @param id
+     *              the id of the account.
+     * @param pending
+     *              the split balance of the account.
+     */
+    private void retire(long id, SplitBalance pending) {
+        if (pending.isClosed()) splitBalances.remove(id, pending);
+    }
+
+    /**
+     * Returns the sorted ids of the accounts with a split balance, so that
+     * whole-store reads look up only those accounts.
+     *
+     * @return
+     *              the ids.
+     */
+    private long[] splitIds() {
+        long[] ids = new long[splitBalances.size()];
+        int count = 0;
+        for (Long id : splitBalances.keySet()) {
+            if (count == ids.length) ids = Arrays.copyOf(ids, count * 2 + 1);
+            ids[count++] = id;
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Returns an account with its pending deposits added to the balance. An
+     * account with pending deposits is copied, so the stored one is left as
+     * it is.
+     *
+     * @param account
+     *              the account read from the store.
+     * @return
+     *              the account, or a copy of it with the pending deposits.
+     */
+    private Account withPending(Account account) {
+        SplitBalance pending = splitBalances.get(account.getId());
+        if (pending == null) return account;
+
+        double balance = dao.balanceOf(account.getId());
+        if (Double.isNaN(balance)) return account;
+
+        Account overlaid = new Account(account.getHolder(), account.getIban(), withPending(account.getId(), balance, pending));
+        overlaid.setId(account.getId());
+        return overlaid;
+    }
+
+    private List<Account> withPending(List<Account> accounts) {
+        if (splitBalances.isEmpty()) return accounts;
+
+        List<Account> result = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            result.add(withPending(account));
+        }
+        return result;
+    }
+
+    private double withPending(long[] ids, long id, double balance) {
+        if (Arrays.binarySearch(ids, id) < 0) return balance;
+
+        SplitBalance pending = splitBalances.get(id);
+        return pending == null ? balance : withPending(id, balance, pending);
+    }
+
+    /**
+     * Adds the pending deposits of an account to a balance read from the
+     * store. If the balance changed while the deposits were summed, they may
+     * have been folded meanwhile, so both are read again.
+     *
+     * @param id
+     *              the id of the account.
+     * @param balance
+     *              the balance read from the store.
+     * @param pending
+     *              the split balance of the account.
+     * @return
+     *              the balance with the pending deposits.
+     */
+    private double withPending(long id, double balance, SplitBalance pending) {
+        while (true) {
+            double sum = pending.sum();
+            double current = dao.balanceOf(id);
+            if (Double.isNaN(current) || Double.compare(current, balance) == 0) return balance + sum;
+            balance = current;
+        }
+    }
+
+    /**
+     * Folds the pending deposits of every split account into its balance.
+     */
+    private void reconcileAll() {
+        if (splitBalances.isEmpty()) return;
+
+        for (Long id : splitBalances.keySet()) {
+            reconcile(id);
+        }
     }
 
     /**
@@ -291,12 +921,56 @@ public class AccountServiceImpl implements IAccountService {
     private void mapAccount(Account account, AccountDTO accountDTO) {
         account.setId(accountDTO.getId());
         account.setBalance(accountDTO.getBalance());
-        account.setIban(accountDTO.getIban());
+        account.setIban(IbanCodec.normalize(accountDTO.getIban()));
         User holder = new User();
         mapUser(holder, accountDTO.getUser());
         account.setHolder(holder);
     }
 
+    /**
+     * Applies the changed fields of a patch, except the iban, to the account.
+     *
+     * @param account
+     *              the account to be changed.
+     * @param patch
+     *              the patch having the changed fields.
+     */
+    private void applyPatch(Account account, AccountPatch patch) {
+        if (patch.hasBalance()) account.setBalance(patch.getBalance());
+        if (!patch.hasFirstname() && !patch.hasLastname() && !patch.hasSsn()) return;
+
+        // The holder is replaced rather than changed, and only if a patched field differs.
+        // An account without a holder gets a new one with only the patched fields.
+        User current = account.getHolder();
+        if (current != null && isUnchanged(current, patch)) return;
+
+        User holder = new User();
+        if (current != null) holder.setId(current.getId());
+        holder.setFirstname(patch.hasFirstname() ? patch.getFirstname() : current == null ? null : current.getFirstname());
+        holder.setLastname(patch.hasLastname() ? patch.getLastname() : current == null ? null : current.getLastname());
+        if (patch.hasSsn()) holder.setSsn(patch.getSsn());
+        else if (current != null && current.hasSsn()) holder.setSsnDigest(current.getSsnHigh(), current.getSsnLow());
+        account.setHolder(holder);
+    }
+
+    /**
+     * Tells if the holder fields of a patch have the values the holder already has.
+     *
+     * @param holder
+     *              the current holder.
+     * @param patch
+     *              the patch having the changed fields.
+     * @return
+     *              true if no holder field would change.
+     */
+    private static boolean isUnchanged(User holder, AccountPatch patch) {
+        if (patch.hasFirstname() && !Objects.equals(patch.getFirstname(), holder.getFirstname())) return false;
+        if (patch.hasLastname() && !Objects.equals(patch.getLastname(), holder.getLastname())) return false;
+        if (!patch.hasSsn()) return true;
+
+        return patch.getSsn() == null ? !holder.hasSsn() : holder.ssnMatches(patch.getSsn());
+    }
+
     /**
      * Maps the properties of the user DTO to the user.
      *
@@ -311,4 +985,33 @@ public class AccountServiceImpl implements IAccountService {
         holder.setLastname(userDTO.getLastname());
         holder.setSsn(userDTO.getSsn());
     }
+
+    /**
+     * A projection whose balance includes the pending deposits, reused for
+     * every split account of a whole-store read.
+     */
+    private static final class PendingProjection implements AccountProjection {
+        private AccountProjection target;
+        private double balance;
+
+        @Override
+        public long getId() {
+            return target.getId();
+        }
+
+        @Override
+        public double getBalance() {
+            return balance;
+        }
+
+        @Override
+        public CharSequence getIban() {
+            return target.getIban();
+        }
+
+        @Override
+        public long getHolderId() {
+            return target.getHolderId();
+        }
+    }
 }
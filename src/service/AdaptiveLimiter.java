@@ -0,0 +1,138 @@
+package service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit that adapts to the observed latency.
+ * <p>
+ * The limit follows the gradient between the minimum latency of the last
+ * seconds and the average latency of each sampling window: it grows while
+ * latency stays near the minimum and shrinks as requests start to queue. Requests
+ * beyond the share of the limit allowed for their priority are rejected
+ * at once instead of waiting. Samples are added to striped counters, so
+ * releasing a request takes no lock; the limit is recomputed once per
+ * window by whichever thread closes it.
+ */
+public class AdaptiveLimiter {
+    private static final double TOLERANCE = 2.0;
+    private static final double SMOOTHING = 0.2;
+    private static final long MIN_RTT_WINDOW = TimeUnit.SECONDS.toNanos(10);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile double limit;
+    private final ReentrantLock recompute = new ReentrantLock();
+    private final AtomicLong minRtt = new AtomicLong(Long.MAX_VALUE);
+    private final LongAdder windowRtt = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final AtomicInteger windowMaxInFlight = new AtomicInteger();
+    private long minRttResetAt = System.nanoTime() + MIN_RTT_WINDOW;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Admits a request if its priority still has room under the limit.
+     *
+     * @param priority
+     *              the priority of the request.
+     * @return
+     *              true if admitted, false if the request must be shed.
+     */
+    public boolean tryAcquire(OperationPriority priority) {
+        int allowed = Math.max(1, (int) (limit * priority.getShare()));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * Releases an admitted request and feeds its latency to the limit.
+     *
+     * @param rttNanos
+     *              the latency of the request in nanoseconds.
+     */
+    public void release(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        onSample(rttNanos, current);
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Collects a sample and, once per window of about one limit's worth of
+     * samples, moves the limit towards the latency gradient. Samples that
+     * race with the end of a window may count towards the next one.
+     */
+    private void onSample(long rtt, int inFlightAtRelease) {
+        windowRtt.add(rtt);
+        windowSamples.increment();
+        // Only a new extreme writes, so the shared words stay mostly read-only.
+        long min = Math.max(1, rtt);
+        if (min < minRtt.get()) minRtt.accumulateAndGet(min, Math::min);
+        if (inFlightAtRelease > windowMaxInFlight.get()) windowMaxInFlight.accumulateAndGet(inFlightAtRelease, Math::max);
+        if (windowSamples.sum() < windowSize() || !recompute.tryLock()) return;
+
+        try {
+            if (windowSamples.sum() < windowSize()) return;
+            updateLimit();
+        } finally {
+            recompute.unlock();
+        }
+    }
+
+    private int windowSize() {
+        return Math.max(MIN_WINDOW_SAMPLES, (int) limit);
+    }
+
+    /**
+     * Closes the window and moves the limit. Called under the recompute lock.
+     */
+    private void updateLimit() {
+        long samples = windowSamples.sumThenReset();
+        double averageRtt = (double) windowRtt.sumThenReset() / samples;
+        double current = limit;
+        boolean appLimited = windowMaxInFlight.getAndSet(0) < current / 2;
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRtt.get() / averageRtt));
+
+        long now = System.nanoTime();
+        if (now - minRttResetAt > 0) {
+            minRttResetAt = now + MIN_RTT_WINDOW;
+            minRtt.set(Long.MAX_VALUE);
+        }
+        // Do not grow the limit while it is not the bottleneck.
+        if (appLimited && gradient == 1.0) return;
+
+        double next = current * gradient + Math.sqrt(current);
+        next = current * (1 - SMOOTHING) + next * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+}
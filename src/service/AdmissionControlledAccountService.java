@@ -0,0 +1,280 @@
+package service;
+
+import dao.AccountProjection;
+import dao.AccountSnapshot;
+import dao.BalanceConsumer;
+import dao.ChangePublisher;
+import dao.SecondaryIndex;
+import dto.AccountDTO;
+import dto.AccountPatch;
+import model.Account;
+import service.exceptions.*;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decorates an account service with admission control.
+ * <p>
+ * Every call must be admitted by an {@link AdaptiveLimiter} before it reaches
+ * the delegate. Calls that find no room for their priority fail fast with
+ * {@link ServiceOverloadedException}, which keeps the latency of the admitted
+ * calls bounded under overload. Single-account reads and money movements get
+ * the whole limit, account maintenance less of it and whole-store reads least.
+ */
+public class AdmissionControlledAccountService implements IAccountService {
+    private final IAccountService delegate;
+    private final AdaptiveLimiter limiter;
+
+    public AdmissionControlledAccountService(IAccountService delegate) {
+        this(delegate, new AdaptiveLimiter(20, 4, 1000));
+    }
+
+    public AdmissionControlledAccountService(IAccountService delegate, AdaptiveLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public Account insertAccount(AccountDTO accountDTO)
+            throws IbanAlreadyExistsException, UserIdAlreadyExistsException, IbanNotValidException {
+        long start = admit("insertAccount", OperationPriority.NORMAL);
+        try {
+            return delegate.insertAccount(accountDTO);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Account updateAccount(long id, AccountDTO accountDTO)
+            throws AccountNotFoundException, IbanAlreadyExistsException, IbanNotValidException {
+        long start = admit("updateAccount", OperationPriority.NORMAL);
+        try {
+            return delegate.updateAccount(id, accountDTO);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Account patchAccount(long id, AccountPatch patch)
+            throws AccountNotFoundException, IbanAlreadyExistsException, IbanNotValidException {
+        long start = admit("patchAccount", OperationPriority.NORMAL);
+        try {
+            return delegate.patchAccount(id, patch);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void deleteAccount(long id) throws AccountNotFoundException {
+        long start = admit("deleteAccount", OperationPriority.NORMAL);
+        try {
+            delegate.deleteAccount(id);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void deleteAccount(String iban) throws AccountNotFoundException {
+        long start = admit("deleteAccount", OperationPriority.NORMAL);
+        try {
+            delegate.deleteAccount(iban);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Account getAccount(long id) throws AccountNotFoundException {
+        long start = admit("getAccount", OperationPriority.CRITICAL);
+        try {
+            return delegate.getAccount(id);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Account getAccount(String iban) throws AccountNotFoundException {
+        long start = admit("getAccount", OperationPriority.CRITICAL);
+        try {
+            return delegate.getAccount(iban);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Account> getAllAccounts() {
+        long start = admit("getAllAccounts", OperationPriority.BULK);
+        try {
+            return delegate.getAllAccounts();
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Account> getAccountsByHolder(long holderId) {
+        long start = admit("getAccountsByHolder", OperationPriority.CRITICAL);
+        try {
+            return delegate.getAccountsByHolder(holderId);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Account> getAccountsBySsn(String ssn) {
+        long start = admit("getAccountsBySsn", OperationPriority.CRITICAL);
+        try {
+            return delegate.getAccountsBySsn(ssn);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Account> getAccountsByLastname(String lastname) {
+        long start = admit("getAccountsByLastname", OperationPriority.NORMAL);
+        try {
+            return delegate.getAccountsByLastname(lastname);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Account> searchAccountsByIban(String prefix, int limit) {
+        long start = admit("searchAccountsByIban", OperationPriority.NORMAL);
+        try {
+            return delegate.searchAccountsByIban(prefix, limit);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Account> searchAccountsByName(String prefix, int limit) {
+        long start = admit("searchAccountsByName", OperationPriority.NORMAL);
+        try {
+            return delegate.searchAccountsByName(prefix, limit);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public AccountSnapshot openSnapshot() {
+        long start = admit("openSnapshot", OperationPriority.BULK);
+        try {
+            return delegate.openSnapshot();
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void foldPendingDeposits() {
+        long start = admit("foldPendingDeposits", OperationPriority.BULK);
+        try {
+            delegate.foldPendingDeposits();
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reports index readiness without admission, as a status check.
+     */
+    @Override
+    public boolean isIndexReady(SecondaryIndex index) {
+        return delegate.isIndexReady(index);
+    }
+
+    @Override
+    public double balanceOf(long id) throws AccountNotFoundException {
+        long start = admit("balanceOf", OperationPriority.CRITICAL);
+        try {
+            return delegate.balanceOf(id);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void forEachBalance(BalanceConsumer action) {
+        long start = admit("forEachBalance", OperationPriority.BULK);
+        try {
+            delegate.forEachBalance(action);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void forEachProjection(Consumer<? super AccountProjection> action) {
+        long start = admit("forEachProjection", OperationPriority.BULK);
+        try {
+            delegate.forEachProjection(action);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the change publisher without admission: subscribing is not a
+     * request, and delivery runs off the request path.
+     */
+    @Override
+    public ChangePublisher accountChanges() {
+        return delegate.accountChanges();
+    }
+
+    @Override
+    public Account deposit(long id, double amount) throws NegativeAmountException, AccountNotFoundException {
+        long start = admit("deposit", OperationPriority.CRITICAL);
+        try {
+            return delegate.deposit(id, amount);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Account withdraw(long id, String ssn, double amount) throws NegativeAmountException,
+            InsufficientBalanceException, AccountNotFoundException, SsnNotValidException, WithdrawalLimitExceededException {
+        long start = admit("withdraw", OperationPriority.CRITICAL);
+        try {
+            return delegate.withdraw(id, ssn, amount);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Admits a call or sheds it.
+     *
+     * @param operation
+     *              the name of the operation.
+     * @param priority
+     *              the priority of the operation.
+     * @return
+     *              the start time of the admitted call.
+     * @throws ServiceOverloadedException
+     *              if the call is shed.
+     */
+    private long admit(String operation, OperationPriority priority) {
+        if (!limiter.tryAcquire(priority)) throw new ServiceOverloadedException(operation, limiter.getLimit());
+
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,90 @@
+package service;
+
+/**
+ * Count-min sketch of recent operations per account, used to spot the few
+ * accounts that take most of the traffic.
+ * <p>
+ * Each record increments one counter in each of four rows and the estimate
+ * is the smallest of the four, so collisions can only over-count. Every
+ * {@code 10 * width} records all counters are halved, so the sketch follows
+ * recent traffic and accounts cool down. Counters are updated without
+ * synchronization: a lost increment under contention only makes an
+ * estimate slightly lower, which is fine for a heuristic.
+ */
+final class HotAccountDetector {
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final int[] counters;
+    private final int width;
+    private final int threshold;
+    private final int sampleSize;
+    private int records;
+
+    /**
+     * @param width
+     *              the counters per row, rounded up to a power of two.
+     * @param threshold
+     *              the estimate from which an account is hot.
+     */
+    HotAccountDetector(int width, int threshold) {
+        this.width = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+        this.threshold = threshold;
+        this.sampleSize = 10 * this.width;
+        this.counters = new int[DEPTH * this.width];
+    }
+
+    /**
+     * Records an operation on an account and tells if the account is hot.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              true if the account has been taking many of the recent operations.
+     */
+    boolean recordAndCheck(long id) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int slot = row * width + index(id, row);
+            int count = ++counters[slot];
+            if (count < estimate) estimate = count;
+        }
+        if (++records >= sampleSize) age();
+        return estimate >= threshold;
+    }
+
+    /**
+     * Tells if an account is hot, without recording an operation.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              true if the account has been taking many of the recent operations.
+     */
+    boolean isHot(long id) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters[row * width + index(id, row)]);
+        }
+        return estimate >= threshold;
+    }
+
+    /**
+     * Halves every counter, forgetting old traffic.
+     */
+    private synchronized void age() {
+        if (records < sampleSize) return;
+
+        records = 0;
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+    }
+
+    private int index(long id, int row) {
+        long h = (id + 1) * SEEDS[row];
+        h ^= h >>> 29;
+        return (int) h & (width - 1);
+    }
+}
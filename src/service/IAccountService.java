@@ -1,10 +1,17 @@
 package service;
 
+import dao.AccountProjection;
+import dao.AccountSnapshot;
+import dao.BalanceConsumer;
+import dao.ChangePublisher;
+import dao.SecondaryIndex;
 import dto.AccountDTO;
+import dto.AccountPatch;
 import model.Account;
 import service.exceptions.*;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * The operations that can be performed on accounts.
@@ -20,10 +27,12 @@ public interface IAccountService {
      *                  if the iban already exists.
      * @throws UserIdAlreadyExistsException
      *                  if the id already exists.
+     * @throws IbanNotValidException
+     *                  if the iban is not valid.
      */
     Account insertAccount(AccountDTO accountDTO)
             throws  IbanAlreadyExistsException,
-            UserIdAlreadyExistsException;
+            UserIdAlreadyExistsException, IbanNotValidException;
 
     /**
      * Updates an existing account with a specified id.
@@ -38,9 +47,30 @@ public interface IAccountService {
      *                  if the account is null.
      * @throws IbanAlreadyExistsException
      *                  if the account's iban already exists.
+     * @throws IbanNotValidException
+     *                  if the iban is not valid.
      */
     Account updateAccount(long id, AccountDTO accountDTO)
-            throws AccountNotFoundException,IbanAlreadyExistsException;
+            throws AccountNotFoundException,IbanAlreadyExistsException,IbanNotValidException;
+
+    /**
+     * Applies only the changed fields of a patch to an existing account.
+     *
+     * @param id
+     *                 the id of account to be patched.
+     * @param patch
+     *                  the fields to be changed.
+     * @return
+     *                  the patched account.
+     * @throws AccountNotFoundException
+     *                  if the account not found.
+     * @throws IbanAlreadyExistsException
+     *                  if the new iban belongs to another account.
+     * @throws IbanNotValidException
+     *                  if the new iban is not valid.
+     */
+    Account patchAccount(long id, AccountPatch patch)
+            throws AccountNotFoundException,IbanAlreadyExistsException,IbanNotValidException;
 
     /**
      * Deletes the account by id.
@@ -93,6 +123,129 @@ public interface IAccountService {
      */
     List<Account> getAllAccounts();
 
+    /**
+     * Retrieves all the accounts of a holder.
+     *
+     * @param holderId
+     *              the id of the holder.
+     * @return
+     *              a new list of the holder's accounts.
+     */
+    List<Account> getAccountsByHolder(long holderId);
+
+    /**
+     * Retrieves all the accounts whose holder has the given ssn.
+     *
+     * @param ssn
+     *              the ssn of the holder.
+     * @return
+     *              a new list of the holder's accounts.
+     */
+    List<Account> getAccountsBySsn(String ssn);
+
+    /**
+     * Retrieves all the accounts whose holder has the given last name.
+     *
+     * @param lastname
+     *              the last name of the holder.
+     * @return
+     *              a new list of the holders' accounts.
+     */
+    List<Account> getAccountsByLastname(String lastname);
+
+    /**
+     * Searches the accounts whose iban starts with a prefix, for typeahead.
+     *
+     * @param prefix
+     *              the start of the iban, in any spacing and case.
+     * @param limit
+     *              the maximum number of accounts.
+     * @return
+     *              the first matching accounts in iban order.
+     */
+    List<Account> searchAccountsByIban(String prefix, int limit);
+
+    /**
+     * Searches the accounts whose holder's last or first name starts with
+     * a prefix, for typeahead. Last name matches come first.
+     *
+     * @param prefix
+     *              the start of the name, in any case.
+     * @param limit
+     *              the maximum number of accounts.
+     * @return
+     *              the first matching accounts.
+     */
+    List<Account> searchAccountsByName(String prefix, int limit);
+
+    /**
+     * Opens a consistent, read-only snapshot of all the accounts
+     * for reports that must not see concurrent changes.
+     *
+     * @return
+     *              the snapshot, to be closed after use.
+     */
+    AccountSnapshot openSnapshot();
+
+    /**
+     * Returns the publisher of the account changes, so that downstream
+     * systems are told what changed instead of polling for it. Deposits
+     * the service holds pending are published once they are folded.
+     *
+     * @return
+     *              the change publisher.
+     */
+    ChangePublisher accountChanges();
+
+    /**
+     * Folds the deposits the service still holds in memory into the store,
+     * for readers that go to the store directly. Reads through the service
+     * include them without folding.
+     */
+    void foldPendingDeposits();
+
+    /**
+     * Tells if a secondary index of the store is ready. Until it is, the
+     * queries it serves still work but scan the store.
+     *
+     * @param index
+     *              the index.
+     * @return
+     *              true if the index is ready.
+     */
+    boolean isIndexReady(SecondaryIndex index);
+
+    /**
+     * Gets the balance of an account without returning the account.
+     *
+     * @param id
+     *              the id of the account.
+     * @return
+     *              the balance.
+     * @throws AccountNotFoundException
+     *              if the account not found.
+     */
+    double balanceOf(long id) throws AccountNotFoundException;
+
+    /**
+     * Passes the id and balance of every account to an action, read in
+     * place by the store.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    void forEachBalance(BalanceConsumer action);
+
+    /**
+     * Passes a read-only projection of every account to an action, read in
+     * place by the store. A projection is valid only during the call that
+     * receives it.
+     *
+     * @param action
+     *              the action to be performed.
+     */
+    void forEachProjection(Consumer<? super AccountProjection> action);
+
     /**
      * Deposits a specified amount of money into the account.
      * @param amount
@@ -128,8 +281,10 @@ public interface IAccountService {
      *              if the account not found.
      * @throws SsnNotValidException
      *              if the ssn is not valid.
+     * @throws WithdrawalLimitExceededException
+     *              if the withdrawal exceeds a daily, hourly or velocity limit of the account.
      */
     Account withdraw(long id, String ssn, double amount)
             throws NegativeAmountException,InsufficientBalanceException,
-            AccountNotFoundException,SsnNotValidException;
+            AccountNotFoundException,SsnNotValidException,WithdrawalLimitExceededException;
 }
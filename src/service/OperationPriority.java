@@ -0,0 +1,30 @@
+package service;
+
+/**
+ * The priority of an account operation under load. Each priority may use
+ * only a share of the concurrency limit, so lower priorities are shed first.
+ */
+public enum OperationPriority {
+    /** Single-account reads and money movements. */
+    CRITICAL(1.0),
+    /** Account maintenance. */
+    NORMAL(0.8),
+    /** Whole-store reads. */
+    BULK(0.5);
+
+    private final double share;
+
+    OperationPriority(double share) {
+        this.share = share;
+    }
+
+    /**
+     * Returns the share of the concurrency limit this priority may use.
+     *
+     * @return
+     *              a value between 0 and 1.
+     */
+    public double getShare() {
+        return share;
+    }
+}
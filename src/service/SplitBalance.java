@@ -0,0 +1,109 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Deposits to a hot account that are not yet in its balance, spread over
+ * striped cells in the manner of {@link java.util.concurrent.atomic.DoubleAdder}.
+ * <p>
+ * Each thread adds to the cell its id hashes to and moves to the next cell
+ * when it loses a race, so concurrent deposits rarely touch the same cache
+ * line. Unlike {@code DoubleAdder#sumThenReset}, {@link #drain()} takes each
+ * cell with a single atomic update, so no deposit is ever lost or counted
+ * twice. A split balance that is {@link #close() closed} takes no more
+ * deposits, so one that is dropped cannot strand a deposit that raced with it.
+ */
+final class SplitBalance {
+    /** Longs per cell, so that each cell sits on its own cache line. */
+    private static final int PADDING = 8;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+
+    /** A signalling NaN that no sum of deposits produces, marking a closed cell. */
+    private static final long CLOSED = 0x7FF0000000000001L;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Adds a deposit, unless the split balance is closed.
+     *
+     * @param amount
+     *              the amount, not negative.
+     * @return
+     *              true if the deposit was added, false if the split balance is closed.
+     */
+    boolean add(double amount) {
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        int stripe = (int) (h >>> 32) & (STRIPES - 1);
+        while (true) {
+            int slot = stripe * PADDING;
+            long bits = cells.get(slot);
+            if (bits == CLOSED) return false;
+
+            long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + amount);
+            if (cells.compareAndSet(slot, bits, updated)) return true;
+            stripe = (stripe + 1) & (STRIPES - 1);
+        }
+    }
+
+    /**
+     * Takes all the deposits held, leaving the cells empty.
+     *
+     * @return
+     *              the sum of the deposits taken.
+     */
+    double drain() {
+        double sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int slot = stripe * PADDING;
+            long bits;
+            do {
+                bits = cells.get(slot);
+            } while (bits != 0L && bits != CLOSED && !cells.compareAndSet(slot, bits, 0L));
+            if (bits != CLOSED) sum += Double.longBitsToDouble(bits);
+        }
+        return sum;
+    }
+
+    /**
+     * Takes all the deposits held and closes every cell, so later deposits
+     * are refused. Closing a closed split balance takes nothing.
+     *
+     * @return
+     *              the sum of the deposits taken.
+     */
+    double close() {
+        double sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            long bits = cells.getAndSet(stripe * PADDING, CLOSED);
+            if (bits != CLOSED) sum += Double.longBitsToDouble(bits);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the deposits held, without taking them.
+     *
+     * @return
+     *              the pending sum.
+     */
+    double sum() {
+        double sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            long bits = cells.get(stripe * PADDING);
+            if (bits != CLOSED) sum += Double.longBitsToDouble(bits);
+        }
+        return sum;
+    }
+
+    boolean isEmpty() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            long bits = cells.get(stripe * PADDING);
+            if (bits != 0L && bits != CLOSED) return false;
+        }
+        return true;
+    }
+
+    boolean isClosed() {
+        return cells.get(0) == CLOSED;
+    }
+}
@@ -0,0 +1,247 @@
+package service;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-account daily, hourly and per-minute withdrawal limits over sliding windows.
+ * <p>
+ * Each window is a ring of time buckets with a running total: the last 24
+ * hours in hourly buckets, the last hour in five-minute buckets and the last
+ * minute in ten-second buckets. Buckets that fall out of a window are
+ * subtracted from its total when the account is next checked, so a check
+ * costs a few array reads. Amounts are counted in whole cents, so the totals
+ * never drift. The rings of all accounts live in pages of a shared
+ * {@code long[]} layout, found through a primitive hash index, so there is
+ * no object per account and no list of timestamps. An account takes a row
+ * from its first withdrawal until it is forgotten.
+ */
+public class WithdrawalLimits {
+    /**
+     * The limits a withdrawal can exceed.
+     */
+    public enum Limit {
+        DAILY, HOURLY, VELOCITY
+    }
+
+    private static final int DAY_BUCKETS = 24;
+    private static final int HOUR_BUCKETS = 12;
+    private static final int MINUTE_BUCKETS = 6;
+    private static final long DAY_BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long HOUR_BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MINUTE_BUCKET_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    // A ring is its latest bucket number, its running total and its buckets.
+    private static final int DAY = 1;
+    private static final int HOUR = DAY + 2 + DAY_BUCKETS;
+    private static final int MINUTE = HOUR + 2 + HOUR_BUCKETS;
+    private static final int ROW = MINUTE + 2 + MINUTE_BUCKETS;
+    private static final int PAGE_ROWS = 1024;
+
+    private final long dailyCents;
+    private final long hourlyCents;
+    private final long perMinute;
+    private final LongSupplier clock;
+
+    private long[][] pages = new long[0][];
+    private int rows;
+    private int[] free = new int[16];
+    private int freeCount;
+    private long[] keys = new long[16];
+    private int[] slots = new int[16];
+    private int size;
+
+    /**
+     * @param dailyLimit
+     *              the most that can be withdrawn from an account in 24 hours.
+     * @param hourlyLimit
+     *              the most that can be withdrawn from an account in an hour.
+     * @param withdrawalsPerMinute
+     *              the most withdrawals from an account in a minute.
+     */
+    public WithdrawalLimits(double dailyLimit, double hourlyLimit, int withdrawalsPerMinute) {
+        this(dailyLimit, hourlyLimit, withdrawalsPerMinute, System::currentTimeMillis);
+    }
+
+    WithdrawalLimits(double dailyLimit, double hourlyLimit, int withdrawalsPerMinute, LongSupplier clock) {
+        if (!(dailyLimit >= 0) || !(hourlyLimit >= 0) || withdrawalsPerMinute < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        this.dailyCents = toCents(dailyLimit);
+        this.hourlyCents = toCents(hourlyLimit);
+        this.perMinute = withdrawalsPerMinute;
+        this.clock = clock;
+    }
+
+    /**
+     * Checks a withdrawal against the limits of an account and, if it is
+     * within all of them, counts it. Meant to be called under the same lock
+     * as the balance update, so the two cannot diverge.
+     *
+     * @param id
+     *              the id of the account.
+     * @param amount
+     *              the amount to be withdrawn.
+     * @return
+     *              the limit the withdrawal exceeds, or {@code null} if it was counted.
+     */
+    public synchronized Limit tryWithdraw(long id, double amount) {
+        long now = clock.getAsLong();
+        long cents = toCents(amount);
+        int row = rowOf(id);
+        long[] page = pages[row / PAGE_ROWS];
+        int base = (row % PAGE_ROWS) * ROW;
+        long day = Math.floorDiv(now, DAY_BUCKET_MILLIS);
+        long hour = Math.floorDiv(now, HOUR_BUCKET_MILLIS);
+        long minute = Math.floorDiv(now, MINUTE_BUCKET_MILLIS);
+
+        if (total(page, base + DAY, DAY_BUCKETS, day) + cents > dailyCents) return Limit.DAILY;
+        if (total(page, base + HOUR, HOUR_BUCKETS, hour) + cents > hourlyCents) return Limit.HOURLY;
+        if (total(page, base + MINUTE, MINUTE_BUCKETS, minute) + 1 > perMinute) return Limit.VELOCITY;
+
+        add(page, base + DAY, DAY_BUCKETS, day, cents);
+        add(page, base + HOUR, HOUR_BUCKETS, hour, cents);
+        add(page, base + MINUTE, MINUTE_BUCKETS, minute, 1);
+        return null;
+    }
+
+    /**
+     * Forgets the withdrawals of an account, e.g. once it is deleted, and
+     * frees its row.
+     *
+     * @param id
+     *              the id of the account.
+     */
+    public synchronized void forget(long id) {
+        int slot = find(id);
+        if (slot == -1) return;
+
+        int row = slots[slot] - 1;
+        deleteSlot(slot);
+        size--;
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = row;
+    }
+
+    /**
+     * Returns the number of accounts being tracked.
+     *
+     * @return
+     *              the tracked accounts.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Drops the buckets that fell out of a ring and returns its total.
+     */
+    private static long total(long[] page, int ring, int buckets, long bucket) {
+        long latest = page[ring];
+        if (bucket <= latest) return page[ring + 1];
+
+        if (bucket - latest >= buckets) {
+            Arrays.fill(page, ring + 1, ring + 2 + buckets, 0L);
+        } else {
+            for (long b = latest + 1; b <= bucket; b++) {
+                int i = ring + 2 + (int) Math.floorMod(b, (long) buckets);
+                page[ring + 1] -= page[i];
+                page[i] = 0L;
+            }
+        }
+        page[ring] = bucket;
+        return page[ring + 1];
+    }
+
+    /**
+     * Adds to the latest bucket of a ring. A clock that went back still
+     * counts into the latest bucket, so nothing escapes the window.
+     */
+    private static void add(long[] page, int ring, int buckets, long bucket, long value) {
+        int i = ring + 2 + (int) Math.floorMod(Math.max(bucket, page[ring]), (long) buckets);
+        page[i] += value;
+        page[ring + 1] += value;
+    }
+
+    private int rowOf(long id) {
+        int slot = find(id);
+        if (slot != -1) return slots[slot] - 1;
+
+        int row;
+        if (freeCount > 0) {
+            row = free[--freeCount];
+        } else {
+            row = rows++;
+            if (row / PAGE_ROWS == pages.length) {
+                pages = Arrays.copyOf(pages, pages.length + 1);
+                pages[pages.length - 1] = new long[PAGE_ROWS * ROW];
+            }
+        }
+        long[] page = pages[row / PAGE_ROWS];
+        int base = (row % PAGE_ROWS) * ROW;
+        Arrays.fill(page, base, base + ROW, 0L);
+        page[base] = id;
+
+        if ((size + 1) * 4 > keys.length * 3) resize();
+        insert(id, row + 1);
+        size++;
+        return row;
+    }
+
+    private int find(long id) {
+        int mask = keys.length - 1;
+        for (int slot = slotOf(id, mask); slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == id) return slot;
+        }
+        return -1;
+    }
+
+    private void insert(long id, int ref) {
+        int mask = keys.length - 1;
+        int slot = slotOf(id, mask);
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id;
+        slots[slot] = ref;
+    }
+
+    /**
+     * Empties a slot and shifts back the entries of its probe run,
+     * so that lookups never need tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+            int home = slotOf(keys[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                slots[hole] = slots[next];
+                hole = next;
+            }
+        }
+        keys[hole] = 0L;
+        slots[hole] = 0;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldKeys.length * 2];
+        slots = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] != 0) insert(oldKeys[i], oldSlots[i]);
+        }
+    }
+
+    private static int slotOf(long id, int mask) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 29)) & mask;
+    }
+
+    private static long toCents(double amount) {
+        return amount >= Long.MAX_VALUE / 100.0 ? Long.MAX_VALUE / 2 : Math.round(amount * 100);
+    }
+}
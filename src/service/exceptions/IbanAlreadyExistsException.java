@@ -8,4 +8,8 @@ public class IbanAlreadyExistsException extends Exception{
     public IbanAlreadyExistsException(Account account) {
         super("Account with IBAN " + account.getIban() + " already exists");
     }
+
+    public IbanAlreadyExistsException(String iban) {
+        super("Account with IBAN " + iban + " already exists");
+    }
 }
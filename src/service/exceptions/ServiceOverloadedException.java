@@ -0,0 +1,14 @@
+package service.exceptions;
+
+/**
+ * Thrown when a request is shed because the service is overloaded.
+ * It is unchecked so that callers of every operation can handle it
+ * uniformly, typically by retrying later.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ServiceOverloadedException(String operation, int limit) {
+        super("Service overloaded, " + operation + " rejected at concurrency limit " + limit);
+    }
+}
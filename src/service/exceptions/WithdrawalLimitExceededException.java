@@ -0,0 +1,19 @@
+package service.exceptions;
+
+import service.WithdrawalLimits;
+
+public class WithdrawalLimitExceededException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final WithdrawalLimits.Limit limit;
+
+    public WithdrawalLimitExceededException(long id, WithdrawalLimits.Limit limit, double amount) {
+        super("Withdrawal of " + amount + " from the account with the id " + id + " exceeds the "
+                + limit.name().toLowerCase() + " limit");
+        this.limit = limit;
+    }
+
+    public WithdrawalLimits.Limit getLimit() {
+        return limit;
+    }
+}
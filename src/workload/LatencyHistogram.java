@@ -0,0 +1,95 @@
+package workload;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds.
+ * <p>
+ * Values below 128 have their own bucket; above that, every power of two
+ * is split into 64 buckets, so any value is kept within 1.6% using a fixed
+ * array of counters. Recording is a few shifts and an increment. Each thread
+ * records into its own histogram and the histograms are merged at the end.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    private final long[] counts = new long[SUB_BUCKETS * 58];
+    private long total;
+    private long max;
+    private double sum;
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *              the latency, negative values count as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        total++;
+        sum += value;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Adds the latencies of another histogram to this one.
+     *
+     * @param other
+     *              the other histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * Returns the latency below or at which a percentage of the values fall.
+     *
+     * @param percentile
+     *              the percentile, e.g. 99.9.
+     * @return
+     *              the highest latency of the bucket the percentile falls in, in nanoseconds.
+     */
+    public long getPercentile(double percentile) {
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, highestValueOf(i));
+        }
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index - (long) SUB_BUCKETS * shift;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,12 @@
+package workload;
+
+/**
+ * The operations a workload issues against an account service.
+ */
+public enum Operation {
+    INSERT,
+    GET,
+    DEPOSIT,
+    WITHDRAW,
+    DELETE
+}
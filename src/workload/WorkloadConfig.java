@@ -0,0 +1,159 @@
+package workload;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Settings of a workload run, with defaults for a short hot-key run.
+ */
+public class WorkloadConfig {
+    private int accounts = 100_000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long durationMillis = 10_000;
+    private long warmupMillis = 2_000;
+    private double rate;
+    private double skew = 0.99;
+    private final EnumMap<Operation, Integer> mix = new EnumMap<>(Operation.class);
+
+    public WorkloadConfig() {
+        mix.put(Operation.INSERT, 5);
+        mix.put(Operation.GET, 50);
+        mix.put(Operation.DEPOSIT, 20);
+        mix.put(Operation.WITHDRAW, 20);
+        mix.put(Operation.DELETE, 5);
+    }
+
+    /**
+     * Reads the settings from {@code --name=value} arguments, e.g.
+     * {@code --accounts=100000 --threads=8 --duration=10 --warmup=2 --rate=50000
+     * --skew=0.99 --mix=get:50,deposit:20,withdraw:20,insert:5,delete:5}.
+     * Durations are in seconds; a rate of 0 runs closed-loop.
+     *
+     * @param args
+     *              the arguments.
+     * @return
+     *              the settings.
+     */
+    public static WorkloadConfig parse(String[] args) {
+        WorkloadConfig config = new WorkloadConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) throw new IllegalArgumentException("Expected --name=value: " + arg);
+
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "accounts": config.setAccounts(Integer.parseInt(value)); break;
+                case "threads": config.setThreads(Integer.parseInt(value)); break;
+                case "duration": config.setDurationMillis((long) (Double.parseDouble(value) * 1000)); break;
+                case "warmup": config.setWarmupMillis((long) (Double.parseDouble(value) * 1000)); break;
+                case "rate": config.setRate(Double.parseDouble(value)); break;
+                case "skew": config.setSkew(Double.parseDouble(value)); break;
+                case "mix": config.setMix(value); break;
+                default: throw new IllegalArgumentException("Unknown setting: " + name);
+            }
+        }
+        return config;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(int accounts) {
+        if (accounts < 1) throw new IllegalArgumentException("accounts must be positive: " + accounts);
+        this.accounts = accounts;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        if (durationMillis < 1) throw new IllegalArgumentException("duration must be positive: " + durationMillis);
+        this.durationMillis = durationMillis;
+    }
+
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    public void setWarmupMillis(long warmupMillis) {
+        if (warmupMillis < 0) throw new IllegalArgumentException("warmup must not be negative: " + warmupMillis);
+        this.warmupMillis = warmupMillis;
+    }
+
+    /**
+     * Returns the target rate of operations per second over all threads,
+     * or 0 for a closed loop where each thread issues as fast as it can.
+     *
+     * @return
+     *              the rate.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public void setRate(double rate) {
+        if (!(rate >= 0) || Double.isInfinite(rate)) throw new IllegalArgumentException("rate must not be negative: " + rate);
+        this.rate = rate;
+    }
+
+    /**
+     * Returns the Zipfian skew of the keys, 0 for uniform keys.
+     *
+     * @return
+     *              the skew.
+     */
+    public double getSkew() {
+        return skew;
+    }
+
+    public void setSkew(double skew) {
+        if (!(skew >= 0 && skew < 1)) throw new IllegalArgumentException("skew must be in [0, 1): " + skew);
+        this.skew = skew;
+    }
+
+    /**
+     * Returns the relative weight of each operation.
+     *
+     * @return
+     *              a copy of the weights.
+     */
+    public Map<Operation, Integer> getMix() {
+        return new EnumMap<>(mix);
+    }
+
+    public void setMix(Operation operation, int weight) {
+        if (weight < 0) throw new IllegalArgumentException("weight must not be negative: " + weight);
+        mix.put(operation, weight);
+    }
+
+    /**
+     * Sets the weights from a list such as {@code get:50,deposit:50}.
+     * Operations not listed get no weight.
+     *
+     * @param mix
+     *              the weights.
+     */
+    public void setMix(String mix) {
+        EnumMap<Operation, Integer> parsed = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) throw new IllegalArgumentException("Expected operation:weight: " + entry);
+            parsed.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        for (Operation operation : Operation.values()) {
+            setMix(operation, parsed.getOrDefault(operation, 0));
+        }
+    }
+}
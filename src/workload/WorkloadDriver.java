@@ -0,0 +1,335 @@
+package workload;
+
+import dto.AccountDTO;
+import dto.UserDTO;
+import service.IAccountService;
+import service.exceptions.AccountNotFoundException;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a configurable workload against any {@link IAccountService}.
+ * <p>
+ * The accounts are loaded first, then every thread issues a random mix of
+ * operations on Zipfian keys for the warm-up and measured periods. In an
+ * open loop each thread follows a fixed schedule and latency is taken from
+ * the scheduled start; in a closed loop each thread issues back to back.
+ * Deposits and withdrawals move whole amounts, so at the end every
+ * surviving account must hold exactly its opening balance plus the
+ * movements that succeeded. Deletes remove the accounts inserted during the
+ * run, oldest first, so the loaded accounts and their hot set stay in place.
+ */
+public class WorkloadDriver {
+    private static final long OPENING_BALANCE = 1_000;
+    private static final int MAX_AMOUNT = 100;
+
+    private final WorkloadConfig config;
+
+    public WorkloadDriver(WorkloadConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Loads the accounts, runs the workload and checks the balances.
+     *
+     * @param service
+     *              the service under test, expected to be empty.
+     * @return
+     *              the report of the run.
+     * @throws InterruptedException
+     *              if interrupted while waiting for the threads.
+     */
+    public WorkloadReport run(IAccountService service) throws InterruptedException {
+        long loadStart = System.nanoTime();
+        load(service);
+        long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart);
+
+        Run run = new Run(service);
+        List<Worker> workers = new ArrayList<>();
+        SplittableRandom seeds = new SplittableRandom();
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        for (int i = 0; i < config.getThreads(); i++) {
+            workers.add(new Worker(run, i, seeds.split(), start));
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        Throwable failure = run.failure.get();
+        if (failure != null) throw new IllegalStateException("Workload thread failed", failure);
+
+        return run.report(workers, loadMillis);
+    }
+
+    /**
+     * Returns a valid Greek IBAN that encodes a number.
+     *
+     * @param number
+     *              the number.
+     * @return
+     *              the iban.
+     */
+    static String iban(long number) {
+        String bban = String.format("0110125%016d", number);
+        int mod = 0;
+        String digits = bban + "162700";
+        for (int i = 0; i < digits.length(); i++) {
+            mod = (mod * 10 + (digits.charAt(i) - '0')) % 97;
+        }
+        return String.format("GR%02d%s", 98 - mod, bban);
+    }
+
+    private static String ssn(long id) {
+        return "SSN" + id;
+    }
+
+    private static AccountDTO newAccount(long id) {
+        return new AccountDTO(id, new UserDTO(id, "First" + id, "Last" + id, ssn(id)), iban(id), OPENING_BALANCE);
+    }
+
+    private void load(IAccountService service) throws InterruptedException {
+        int threads = config.getThreads();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> loaders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread loader = new Thread(() -> {
+                try {
+                    for (long id = first; id < config.getAccounts(); id += threads) {
+                        service.insertAccount(newAccount(id));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "workload-loader-" + t);
+            loaders.add(loader);
+            loader.start();
+        }
+        for (Thread loader : loaders) {
+            loader.join();
+        }
+        if (failure.get() != null) throw new IllegalStateException("Loading the accounts failed", failure.get());
+    }
+
+    /**
+     * The state shared by the threads of a run.
+     */
+    private final class Run {
+        private final IAccountService service;
+        private final ZipfianGenerator keys;
+        private final Operation[] operations;
+        private final int[] cumulativeWeights;
+        private final AtomicLongArray expected;
+        private final AtomicLong nextId;
+        private final ConcurrentLinkedQueue<Long> inserted = new ConcurrentLinkedQueue<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Run(IAccountService service) {
+            this.service = service;
+            this.keys = new ZipfianGenerator(config.getAccounts(), config.getSkew());
+            this.expected = new AtomicLongArray(config.getAccounts());
+            this.nextId = new AtomicLong(config.getAccounts());
+            for (int i = 0; i < config.getAccounts(); i++) {
+                expected.set(i, OPENING_BALANCE);
+            }
+
+            Map<Operation, Integer> mix = config.getMix();
+            List<Operation> chosen = new ArrayList<>();
+            List<Integer> bounds = new ArrayList<>();
+            int total = 0;
+            for (Operation operation : Operation.values()) {
+                int weight = mix.getOrDefault(operation, 0);
+                if (weight == 0) continue;
+                total += weight;
+                chosen.add(operation);
+                bounds.add(total);
+            }
+            if (total == 0) throw new IllegalArgumentException("The operation mix is empty");
+            this.operations = chosen.toArray(new Operation[0]);
+            this.cumulativeWeights = bounds.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        Operation pick(SplittableRandom random) {
+            int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            int i = 0;
+            while (draw >= cumulativeWeights[i]) {
+                i++;
+            }
+            return operations[i];
+        }
+
+        /**
+         * Issues one operation and records its effect on the expected balances.
+         */
+        void execute(Operation operation, SplittableRandom random) throws Exception {
+            switch (operation) {
+                case INSERT: {
+                    long id = nextId.getAndIncrement();
+                    service.insertAccount(newAccount(id));
+                    inserted.add(id);
+                    break;
+                }
+                case GET:
+                    service.getAccount(keys.next(random));
+                    break;
+                case DEPOSIT: {
+                    int id = (int) keys.next(random);
+                    int amount = 1 + random.nextInt(MAX_AMOUNT);
+                    service.deposit(id, amount);
+                    expected.addAndGet(id, amount);
+                    break;
+                }
+                case WITHDRAW: {
+                    int id = (int) keys.next(random);
+                    int amount = 1 + random.nextInt(MAX_AMOUNT);
+                    service.withdraw(id, ssn(id), amount);
+                    expected.addAndGet(id, -amount);
+                    break;
+                }
+                case DELETE: {
+                    Long id = inserted.poll();
+                    service.deleteAccount(id == null ? nextId.get() : id);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + operation);
+            }
+        }
+
+        WorkloadReport report(List<Worker> workers, long loadMillis) {
+            EnumMap<Operation, Long> succeeded = new EnumMap<>(Operation.class);
+            EnumMap<Operation, Long> failed = new EnumMap<>(Operation.class);
+            TreeMap<String, Long> errors = new TreeMap<>();
+            LatencyHistogram responseTimes = new LatencyHistogram();
+            LatencyHistogram serviceTimes = new LatencyHistogram();
+            long missed = 0;
+            for (Worker worker : workers) {
+                for (Operation operation : Operation.values()) {
+                    succeeded.merge(operation, worker.succeeded[operation.ordinal()], Long::sum);
+                    failed.merge(operation, worker.failed[operation.ordinal()], Long::sum);
+                }
+                worker.errors.forEach((type, count) -> errors.merge(type, count, Long::sum));
+                responseTimes.add(worker.responseTimes);
+                serviceTimes.add(worker.serviceTimes);
+                missed += worker.missed;
+            }
+            double seconds = config.getDurationMillis() / 1000.0;
+            return new WorkloadReport(config, loadMillis, seconds, succeeded, failed, errors, missed,
+                    responseTimes, serviceTimes, checkBalances());
+        }
+
+        private WorkloadReport.BalanceCheck checkBalances() {
+            long checked = 0;
+            long deleted = 0;
+            long mismatched = 0;
+            long negative = 0;
+            double expectedTotal = 0;
+            double actualTotal = 0;
+            List<long[]> accounts = new ArrayList<>();
+            for (int id = 0; id < expected.length(); id++) {
+                accounts.add(new long[] {id, expected.get(id)});
+            }
+            for (long id : inserted) {
+                accounts.add(new long[] {id, OPENING_BALANCE});
+            }
+            for (long[] entry : accounts) {
+                double balance;
+                try {
+                    balance = service.balanceOf(entry[0]);
+                } catch (AccountNotFoundException e) {
+                    deleted++;
+                    continue;
+                }
+                checked++;
+                expectedTotal += entry[1];
+                actualTotal += balance;
+                if (balance != entry[1]) mismatched++;
+                if (balance < 0) negative++;
+            }
+            return new WorkloadReport.BalanceCheck(checked, deleted, mismatched, negative, expectedTotal, actualTotal);
+        }
+    }
+
+    /**
+     * A thread of the workload with its own random source, counters and histograms.
+     */
+    private final class Worker extends Thread {
+        private final Run run;
+        private final SplittableRandom random;
+        private final long start;
+        private final long offset;
+        private final long[] succeeded = new long[Operation.values().length];
+        private final long[] failed = new long[Operation.values().length];
+        private final Map<String, Long> errors = new HashMap<>();
+        private final LatencyHistogram responseTimes = new LatencyHistogram();
+        private final LatencyHistogram serviceTimes = new LatencyHistogram();
+        private long missed;
+
+        Worker(Run run, int index, SplittableRandom random, long start) {
+            super("workload-" + index);
+            this.run = run;
+            this.random = random;
+            this.start = start;
+            this.offset = config.getRate() > 0 ? (long) (1e9 / config.getRate() * index) : 0;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runLoop();
+            } catch (Throwable t) {
+                run.failure.compareAndSet(null, t);
+            }
+        }
+
+        private void runLoop() {
+            long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(config.getWarmupMillis());
+            long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(config.getDurationMillis());
+            long interval = config.getRate() > 0 ? (long) (1e9 * config.getThreads() / config.getRate()) : 0;
+            long scheduled = start + offset;
+
+            while (true) {
+                long now;
+                while ((now = System.nanoTime()) - scheduled < 0) {
+                    LockSupport.parkNanos(scheduled - now);
+                }
+                if (now - end >= 0) break;
+                if (interval == 0) scheduled = now;
+
+                Operation operation = run.pick(random);
+                long issued = System.nanoTime();
+                boolean ok = true;
+                try {
+                    run.execute(operation, random);
+                } catch (Exception e) {
+                    ok = false;
+                    if (scheduled - measureFrom >= 0) errors.merge(e.getClass().getSimpleName(), 1L, Long::sum);
+                }
+                long finished = System.nanoTime();
+
+                if (scheduled - measureFrom >= 0) {
+                    if (ok) succeeded[operation.ordinal()]++;
+                    else failed[operation.ordinal()]++;
+                    responseTimes.record(finished - scheduled);
+                    serviceTimes.record(finished - issued);
+                }
+                scheduled += interval;
+            }
+            if (interval > 0 && end - scheduled > 0) missed = (end - scheduled + interval - 1) / interval;
+        }
+    }
+}
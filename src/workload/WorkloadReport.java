@@ -0,0 +1,187 @@
+package workload;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Results of a workload run: throughput, latency and the balance check.
+ * <p>
+ * Response times are measured from when each operation was scheduled to
+ * start, not from when it was issued, so time spent waiting behind a slow
+ * operation is counted instead of omitted. In a closed loop they equal the
+ * service times.
+ */
+public final class WorkloadReport {
+    private final WorkloadConfig config;
+    private final long loadMillis;
+    private final double seconds;
+    private final EnumMap<Operation, Long> succeeded;
+    private final EnumMap<Operation, Long> failed;
+    private final TreeMap<String, Long> errors;
+    private final long missed;
+    private final LatencyHistogram responseTimes;
+    private final LatencyHistogram serviceTimes;
+    private final BalanceCheck balances;
+
+    WorkloadReport(WorkloadConfig config, long loadMillis, double seconds,
+                   EnumMap<Operation, Long> succeeded, EnumMap<Operation, Long> failed, TreeMap<String, Long> errors,
+                   long missed, LatencyHistogram responseTimes, LatencyHistogram serviceTimes, BalanceCheck balances) {
+        this.config = config;
+        this.loadMillis = loadMillis;
+        this.seconds = seconds;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.errors = errors;
+        this.missed = missed;
+        this.responseTimes = responseTimes;
+        this.serviceTimes = serviceTimes;
+        this.balances = balances;
+    }
+
+    /**
+     * Returns the operations completed per second during the measured period.
+     *
+     * @return
+     *              the throughput.
+     */
+    public double getThroughput() {
+        return responseTimes.getCount() / seconds;
+    }
+
+    public long getSucceeded(Operation operation) {
+        return succeeded.getOrDefault(operation, 0L);
+    }
+
+    public long getFailed(Operation operation) {
+        return failed.getOrDefault(operation, 0L);
+    }
+
+    /**
+     * Returns the number of failures by exception type.
+     *
+     * @return
+     *              a copy of the counts.
+     */
+    public Map<String, Long> getErrors() {
+        return new TreeMap<>(errors);
+    }
+
+    /**
+     * Returns the operations an open loop had scheduled but never issued
+     * before the end of the run, because it had fallen behind.
+     *
+     * @return
+     *              the missed operations.
+     */
+    public long getMissed() {
+        return missed;
+    }
+
+    public LatencyHistogram getResponseTimes() {
+        return responseTimes;
+    }
+
+    public LatencyHistogram getServiceTimes() {
+        return serviceTimes;
+    }
+
+    public BalanceCheck getBalances() {
+        return balances;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("accounts=%d threads=%d skew=%.2f %s, loaded in %d ms%n",
+                config.getAccounts(), config.getThreads(), config.getSkew(),
+                config.getRate() > 0 ? String.format("open loop at %.0f ops/s", config.getRate()) : "closed loop",
+                loadMillis));
+        sb.append(String.format("throughput: %.0f ops/s over %.1f s%s%n", getThroughput(), seconds,
+                missed > 0 ? ", " + missed + " scheduled operations missed" : ""));
+        for (Operation operation : Operation.values()) {
+            long ok = getSucceeded(operation);
+            long ko = getFailed(operation);
+            if (ok + ko > 0) sb.append(String.format("  %-8s ok=%d failed=%d%n", operation, ok, ko));
+        }
+        errors.forEach((type, count) -> sb.append(String.format("  error %s x%d%n", type, count)));
+        appendLatency(sb, "response", responseTimes);
+        appendLatency(sb, "service ", serviceTimes);
+        sb.append(balances);
+        return sb.toString();
+    }
+
+    private static void appendLatency(StringBuilder sb, String name, LatencyHistogram histogram) {
+        sb.append(String.format("%s us: mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n", name,
+                histogram.getMean() / 1e3,
+                histogram.getPercentile(50) / 1e3,
+                histogram.getPercentile(90) / 1e3,
+                histogram.getPercentile(99) / 1e3,
+                histogram.getPercentile(99.9) / 1e3,
+                histogram.getMax() / 1e3));
+    }
+
+    /**
+     * Outcome of comparing the final balances with the successful money
+     * movements the workload made.
+     */
+    public static final class BalanceCheck {
+        private final long checked;
+        private final long deleted;
+        private final long mismatched;
+        private final long negative;
+        private final double expectedTotal;
+        private final double actualTotal;
+
+        BalanceCheck(long checked, long deleted, long mismatched, long negative, double expectedTotal, double actualTotal) {
+            this.checked = checked;
+            this.deleted = deleted;
+            this.mismatched = mismatched;
+            this.negative = negative;
+            this.expectedTotal = expectedTotal;
+            this.actualTotal = actualTotal;
+        }
+
+        public long getChecked() {
+            return checked;
+        }
+
+        public long getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * Returns the accounts whose balance differs from the sum of their
+         * successful deposits and withdrawals, e.g. due to lost updates.
+         *
+         * @return
+         *              the mismatched accounts.
+         */
+        public long getMismatched() {
+            return mismatched;
+        }
+
+        public long getNegative() {
+            return negative;
+        }
+
+        public double getExpectedTotal() {
+            return expectedTotal;
+        }
+
+        public double getActualTotal() {
+            return actualTotal;
+        }
+
+        public boolean isConsistent() {
+            return mismatched == 0 && negative == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("balances: %s, checked=%d deleted=%d mismatched=%d negative=%d expected=%.0f actual=%.0f%n",
+                    isConsistent() ? "consistent" : "INCONSISTENT", checked, deleted, mismatched, negative,
+                    expectedTotal, actualTotal);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws keys from {@code [0, n)} following a Zipfian distribution, so that a
+ * few low keys are hot and most are cold. Uses the rejection-free method of
+ * Gray et al., "Quickly Generating Billion-Record Synthetic Databases":
+ * the normalization constant is computed once and each draw is O(1).
+ * A skew of 0 gives uniform keys.
+ */
+public final class ZipfianGenerator {
+    private final long n;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+    private final double halfPowTheta;
+
+    /**
+     * @param n
+     *              the number of keys.
+     * @param theta
+     *              the skew, in {@code [0, 1)}; 0.99 is the usual hot-key setting.
+     */
+    public ZipfianGenerator(long n, double theta) {
+        if (n < 1) throw new IllegalArgumentException("n must be positive: " + n);
+        if (!(theta >= 0 && theta < 1)) throw new IllegalArgumentException("theta must be in [0, 1): " + theta);
+        this.n = n;
+        this.theta = theta;
+        this.zetaN = zeta(n, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(Math.min(2, n), theta) / zetaN);
+        this.halfPowTheta = 1 + Math.pow(0.5, theta);
+    }
+
+    /**
+     * Draws the next key.
+     *
+     * @param random
+     *              the source of randomness of the calling thread.
+     * @return
+     *              a key in {@code [0, n)}.
+     */
+    public long next(SplittableRandom random) {
+        if (theta == 0) return random.nextLong(n);
+
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1) return 0;
+        if (uz < halfPowTheta) return Math.min(1, n - 1);
+        return Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}